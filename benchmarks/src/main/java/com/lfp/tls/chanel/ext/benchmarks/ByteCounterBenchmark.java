@@ -0,0 +1,84 @@
+package com.lfp.tls.chanel.ext.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.lfp.tls.chanel.ext.core.ByteCounter;
+import com.lfp.tls.chanel.ext.core.ByteCounterDispatcher;
+import com.lfp.tls.chanel.ext.core.ByteCounterDispatcher.OverflowPolicy;
+
+// every thread counts on one shared counter, the way all relays of a tunnel do
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteCounterBenchmark {
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ByteCounterBenchmark.class.getSimpleName()).build()).run();
+	}
+
+	// none counts only, inline notifies on the counting thread, dispatcher hands events to its own thread
+	@Param({ "none", "inline", "dispatcher" })
+	private String listener;
+
+	private ByteCounter byteCounter;
+	private ByteCounterDispatcher dispatcher;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		this.byteCounter = new ByteCounter();
+		if ("none".equals(listener))
+			return;
+		if ("dispatcher".equals(listener)) {
+			this.dispatcher = new ByteCounterDispatcher(1024, OverflowPolicy.COALESCE);
+			byteCounter.setDispatcher(dispatcher);
+		}
+		byteCounter.addListener(event -> {
+		});
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (dispatcher != null)
+			dispatcher.close();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void count1() {
+		byteCounter.count(1024);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void count4() {
+		byteCounter.count(1024);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public void countMax() {
+		byteCounter.count(1024);
+	}
+
+}
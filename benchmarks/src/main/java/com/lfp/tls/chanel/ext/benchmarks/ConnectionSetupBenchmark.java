@@ -0,0 +1,106 @@
+package com.lfp.tls.chanel.ext.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.lfp.tls.chanel.ext.core.Tunnel;
+import com.lfp.tls.chanel.ext.core.Tunneler;
+
+// a fresh connection per operation, the first echoed byte proves the backend connect and both relays are up
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.net.preferIPv4Stack=true")
+public class ConnectionSetupBenchmark {
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ConnectionSetupBenchmark.class.getSimpleName()).build()).run();
+	}
+
+	@Param({ "false", "true" })
+	private boolean speculativeBackEndConnect;
+
+	private LoopbackEchoServer echoServer;
+	private AsynchronousChannelGroup channelGroup;
+	private Tunnel tunnel;
+	private InetSocketAddress tunnelAddress;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, InterruptedException {
+		this.echoServer = new LoopbackEchoServer();
+		var backEndAddress = echoServer.getAddress();
+		this.channelGroup = AsynchronousChannelGroup.withFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+				Executors.defaultThreadFactory());
+		var tunneler = new Tunneler(channelGroup) {
+
+			@Override
+			protected SocketAddress getBackEndSocketAddress(AsynchronousByteChannel byteChannel) {
+				return backEndAddress;
+			}
+		};
+		tunneler.setSpeculativeBackEndConnect(speculativeBackEndConnect);
+		// like the clients and the echo backend, otherwise each exchange waits on a delayed ack
+		tunneler.setTcpNoDelay(true);
+		tunneler.setAcceptBacklog(4096);
+		this.tunnelAddress = LoopbackEchoServer.freeAddress();
+		this.tunnel = tunneler.start(tunnelAddress);
+		LoopbackEchoServer.awaitListening(tunnelAddress);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		tunnel.cancel(true);
+		channelGroup.shutdownNow();
+		echoServer.close();
+	}
+
+	@Benchmark
+	public int tunnel() throws IOException {
+		return connectAndEcho(tunnelAddress);
+	}
+
+	@Benchmark
+	public int direct() throws IOException {
+		return connectAndEcho(echoServer.getAddress());
+	}
+
+	private static int connectAndEcho(InetSocketAddress address) throws IOException {
+		try (var socket = new Socket()) {
+			socket.setTcpNoDelay(true);
+			// a reset close keeps closed connections out of time wait, long runs would exhaust ports otherwise
+			socket.setSoLinger(true, 0);
+			socket.connect(address);
+			socket.getOutputStream().write(1);
+			int result = socket.getInputStream().read();
+			if (result < 0)
+				throw new IOException("echo closed");
+			return result;
+		}
+	}
+
+}
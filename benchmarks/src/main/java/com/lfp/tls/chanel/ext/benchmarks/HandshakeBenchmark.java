@@ -0,0 +1,135 @@
+package com.lfp.tls.chanel.ext.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.lfp.tls.chanel.ext.core.HandshakeEngine;
+import com.lfp.tls.chanel.ext.core.Tunnel;
+import com.lfp.tls.chanel.ext.core.TlsTunneler;
+
+import test.TestServices;
+
+// handshakes per time unit against the self signed test context, the clients run in the same process so the
+// result is a lower bound for the server side alone
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class HandshakeBenchmark {
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(HandshakeBenchmark.class.getSimpleName()).build()).run();
+	}
+
+	@Param({ "false", "true" })
+	private boolean handshakeEngine;
+
+	// false invalidates every client session so that each handshake is a full one
+	@Param({ "false", "true" })
+	private boolean sessionResumption;
+
+	private LoopbackEchoServer echoServer;
+	private HandshakeEngine engine;
+	private Tunnel tunnel;
+	private InetSocketAddress tunnelAddress;
+	private SSLSocketFactory clientSocketFactory;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, GeneralSecurityException, InterruptedException {
+		this.echoServer = new LoopbackEchoServer();
+		var sslContext = TestServices.createSSLContext();
+		var tunneler = new TlsTunneler(Duration.ofSeconds(10)) {
+
+			@Override
+			protected Optional<SSLContext> getSSLContext(Optional<SNIServerName> sniServerNameOp) {
+				return Optional.of(sslContext);
+			}
+		};
+		tunneler.getSniRoutingTable().reload(Map.<String, SocketAddress>of(), echoServer.getAddress());
+		if (handshakeEngine) {
+			this.engine = new HandshakeEngine();
+			tunneler.setHandshakeEngine(engine);
+		}
+		tunneler.setAcceptBacklog(4096);
+		// like the clients and the echo backend, otherwise each exchange waits on a delayed ack
+		tunneler.setTcpNoDelay(true);
+		this.tunnelAddress = LoopbackEchoServer.freeAddress();
+		this.tunnel = tunneler.start(tunnelAddress);
+		LoopbackEchoServer.awaitListening(tunnelAddress);
+		var clientContext = SSLContext.getInstance("TLS");
+		clientContext.init(null, new TrustManager[] { new TrustAllManager() }, null);
+		this.clientSocketFactory = clientContext.getSocketFactory();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		tunnel.cancel(true);
+		if (engine != null)
+			engine.close();
+		echoServer.close();
+	}
+
+	@Benchmark
+	public boolean handshake() throws IOException {
+		try (var socket = (SSLSocket) clientSocketFactory.createSocket(tunnelAddress.getAddress(),
+				tunnelAddress.getPort())) {
+			socket.setTcpNoDelay(true);
+			socket.startHandshake();
+			var session = socket.getSession();
+			if (!sessionResumption)
+				session.invalidate();
+			return session.isValid();
+		}
+	}
+
+	// the benchmark measures the server, the test certificate is not verified
+	private static class TrustAllManager implements X509TrustManager {
+
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return new X509Certificate[0];
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.lfp.tls.chanel.ext.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.lfp.tls.chanel.ext.core.TunnelUtils;
+
+// in process backend, one thread per connection keeps it out of the measured event loops
+public class LoopbackEchoServer implements Closeable {
+
+	private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+	private final ServerSocket serverSocket;
+
+	public LoopbackEchoServer() throws IOException {
+		this.serverSocket = new ServerSocket(0, 4096, InetAddress.getLoopbackAddress());
+		var acceptThread = new Thread(this::acceptLoop, "loopback-echo-accept");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	public InetSocketAddress getAddress() {
+		return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+	}
+
+	@Override
+	public void close() {
+		TunnelUtils.closeQuietly(serverSocket);
+		for (var socket : sockets)
+			TunnelUtils.closeQuietly(socket);
+	}
+
+	private void acceptLoop() {
+		while (!serverSocket.isClosed()) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+			} catch (IOException e) {
+				return;
+			}
+			sockets.add(socket);
+			var echoThread = new Thread(() -> echo(socket), "loopback-echo");
+			echoThread.setDaemon(true);
+			echoThread.start();
+		}
+	}
+
+	private void echo(Socket socket) {
+		try (socket) {
+			socket.getInputStream().transferTo(socket.getOutputStream());
+		} catch (IOException e) {
+			// client went away
+		} finally {
+			sockets.remove(socket);
+		}
+	}
+
+	// the loopback address with a free port for a tunnel to listen on
+	public static InetSocketAddress freeAddress() throws IOException {
+		try (var serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+		}
+	}
+
+	// waits for a started tunnel to accept connections
+	public static void awaitListening(InetSocketAddress address) throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			try (var socket = new Socket()) {
+				socket.connect(address, 100);
+				return;
+			} catch (IOException e) {
+				Thread.sleep(50);
+			}
+		}
+		throw new IllegalStateException("tunnel not listening. address:" + address);
+	}
+
+}
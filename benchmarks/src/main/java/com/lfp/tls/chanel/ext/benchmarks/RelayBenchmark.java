@@ -0,0 +1,148 @@
+package com.lfp.tls.chanel.ext.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.lfp.tls.chanel.ext.core.Tunnel;
+import com.lfp.tls.chanel.ext.core.Tunneler;
+
+// each operation echoes one chunk through the tunnel, bytes per second is the throughput times the chunk size.
+// direct echoes the same chunk without the tunnel, the difference is what relaying costs
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelayBenchmark {
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(RelayBenchmark.class.getSimpleName()).build()).run();
+	}
+
+	@Param({ "4096", "65536", "262144" })
+	private int bufferCapacity;
+
+	@Param({ "false", "true" })
+	private boolean pipelinedRelay;
+
+	private LoopbackEchoServer echoServer;
+	private AsynchronousChannelGroup channelGroup;
+	private Tunnel tunnel;
+	private InetSocketAddress tunnelAddress;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, InterruptedException {
+		this.echoServer = new LoopbackEchoServer();
+		var backEndAddress = echoServer.getAddress();
+		this.channelGroup = AsynchronousChannelGroup.withFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+				Executors.defaultThreadFactory());
+		var tunneler = new Tunneler(channelGroup) {
+
+			@Override
+			protected SocketAddress getBackEndSocketAddress(AsynchronousByteChannel byteChannel) {
+				return backEndAddress;
+			}
+		};
+		tunneler.setBufferCapacity(bufferCapacity, bufferCapacity);
+		tunneler.setPipelinedRelay(pipelinedRelay);
+		// like the clients and the echo backend, otherwise each exchange waits on a delayed ack
+		tunneler.setTcpNoDelay(true);
+		this.tunnelAddress = LoopbackEchoServer.freeAddress();
+		this.tunnel = tunneler.start(tunnelAddress);
+		LoopbackEchoServer.awaitListening(tunnelAddress);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		tunnel.cancel(true);
+		channelGroup.shutdownNow();
+		echoServer.close();
+	}
+
+	@Benchmark
+	public int tunnel(Client client) throws IOException {
+		return client.echo(client.tunnelSocket);
+	}
+
+	@Benchmark
+	public int direct(Client client) throws IOException {
+		return client.echo(client.directSocket);
+	}
+
+	@State(Scope.Thread)
+	public static class Client {
+
+		@Param({ "512", "16384", "65536" })
+		private int chunkSize;
+
+		private byte[] chunk;
+		private byte[] received;
+		private Socket tunnelSocket;
+		private Socket directSocket;
+
+		@Setup(Level.Trial)
+		public void setup(RelayBenchmark benchmark) throws IOException {
+			this.chunk = new byte[chunkSize];
+			ThreadLocalRandom.current().nextBytes(chunk);
+			this.received = new byte[chunkSize];
+			this.tunnelSocket = connect(benchmark.tunnelAddress);
+			this.directSocket = connect(benchmark.echoServer.getAddress());
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			tunnelSocket.close();
+			directSocket.close();
+		}
+
+		// chunks stay below the loopback socket buffers, so writing all before reading cannot deadlock
+		public int echo(Socket socket) throws IOException {
+			OutputStream outputStream = socket.getOutputStream();
+			outputStream.write(chunk);
+			InputStream inputStream = socket.getInputStream();
+			int read = 0;
+			while (read < received.length) {
+				int result = inputStream.read(received, read, received.length - read);
+				if (result < 0)
+					throw new IOException("echo closed after " + read + " bytes");
+				read += result;
+			}
+			return read;
+		}
+
+		private static Socket connect(InetSocketAddress address) throws IOException {
+			var socket = new Socket();
+			socket.setTcpNoDelay(true);
+			socket.connect(address);
+			return socket;
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+package com.lfp.tls.chanel.ext.benchmarks;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.lfp.tls.chanel.ext.core.SniRoutingTable;
+
+// run with -prof gc to confirm lookups do not allocate
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SniRoutingBenchmark {
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SniRoutingBenchmark.class.getSimpleName()).build()).run();
+	}
+
+	@Param({ "10000" })
+	private int routeCount;
+
+	private SniRoutingTable<SocketAddress> sniRoutingTable;
+	private String exactServerName;
+	private String wildcardServerName;
+	private String suffixServerName;
+	private String unmatchedServerName;
+
+	@Setup
+	public void setup() {
+		var routes = new HashMap<String, SocketAddress>();
+		// a third each of exact, wildcard and suffix routes spread over distinct domains
+		for (int i = 0; i < routeCount; i++) {
+			var backEnd = InetSocketAddress.createUnresolved("backend-" + i, 443);
+			var domain = String.format("tenant-%s.region-%s.example.com", i, i % 16);
+			if (i % 3 == 0)
+				routes.put("api." + domain, backEnd);
+			else if (i % 3 == 1)
+				routes.put("*." + domain, backEnd);
+			else
+				routes.put("." + domain, backEnd);
+		}
+		this.sniRoutingTable = new SniRoutingTable<>(routes, InetSocketAddress.createUnresolved("default", 443));
+		int index = routeCount / 2 / 3 * 3;
+		this.exactServerName = String.format("API.tenant-%s.region-%s.example.com", index, index % 16);
+		this.wildcardServerName = String.format("www.tenant-%s.region-%s.example.com", index + 1, (index + 1) % 16);
+		this.suffixServerName = String.format("a.b.tenant-%s.region-%s.example.com", index + 2, (index + 2) % 16);
+		this.unmatchedServerName = "www.tenant-unknown.region-0.example.com";
+	}
+
+	@Benchmark
+	public SocketAddress exact() {
+		return sniRoutingTable.route(exactServerName);
+	}
+
+	@Benchmark
+	public SocketAddress wildcard() {
+		return sniRoutingTable.route(wildcardServerName);
+	}
+
+	@Benchmark
+	public SocketAddress suffix() {
+		return sniRoutingTable.route(suffixServerName);
+	}
+
+	@Benchmark
+	public SocketAddress unmatched() {
+		return sniRoutingTable.route(unmatchedServerName);
+	}
+
+}
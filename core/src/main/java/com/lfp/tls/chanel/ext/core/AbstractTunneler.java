@@ -4,160 +4,1118 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.channels.NetworkChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 public abstract class AbstractTunneler<SERVER extends Closeable, ABC extends AsynchronousByteChannel> {
 	private static final Class<?> THIS_CLASS = new Object() {
 	}.getClass().getEnclosingClass();
 	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
-	private static final int BYTE_BUFFER_CAPACITY = 10_000;
+	// holds a complete tls record, the relay resizes from there
+	private static final int STARTUP_BUFFER_CAPACITY = 16 * 1024;
 	private static final ExecutorService RUNNING_EXECUTOR_SERVICE = Executors.newCachedThreadPool();
+	// hedging waits for enough connects to know what slow means
+	private static final int HEDGED_CONNECT_MIN_SAMPLES = 100;
+	private static final int HEDGED_CONNECT_UPDATE_INTERVAL = 64;
+	private static final int CONNECT_LATENCY_DECAY_COUNT = 8192;
+	private BufferPool bufferPool = SlabBufferPool.getDefault();
+	private boolean pipelinedRelay;
+	private int acceptBacklog;
+	private boolean tcpNoDelay = true;
+	private boolean speculativeBackEndConnect;
+	private volatile BackEndConnectionPool backEndConnectionPool;
+	private HashedWheelTimer timer = HashedWheelTimer.getDefault();
+	private Duration idleReadTimeout;
+	private Duration idleWriteTimeout;
+	private int minBufferCapacity = 4 * 1024;
+	private int maxBufferCapacity = 256 * 1024;
+	private int idleBufferCapacity;
+	private BufferPool idleBufferPool;
+	private volatile AdmissionController admissionController;
+	private Duration backEndConnectTimeout = Duration.ofSeconds(10);
+	private double hedgedConnectPercentile;
+	private Duration hedgedConnectMinDelay = Duration.ofMillis(50);
+	private final LatencyHistogram backEndConnectLatency = new LatencyHistogram();
+	private final LongAdder hedgedConnectCount = new LongAdder();
+	private final LongAdder connectTimeoutCount = new LongAdder();
+	private volatile long hedgedConnectDelayNanos = -1;
+	private CachingHostResolver hostResolver = CachingHostResolver.getDefault();
+	private boolean connectionTracking = true;
+	private int serverNameMetricsLimit;
+	private boolean jmxEnabled = true;
+	private Duration relayStallThreshold = Duration.ofMillis(100);
+
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	public void setBufferPool(BufferPool bufferPool) {
+		this.bufferPool = Objects.requireNonNull(bufferPool);
+	}
+
+	public boolean isPipelinedRelay() {
+		return pipelinedRelay;
+	}
+
+	public void setPipelinedRelay(boolean pipelinedRelay) {
+		this.pipelinedRelay = pipelinedRelay;
+	}
+
+	public int getAcceptBacklog() {
+		return acceptBacklog;
+	}
+
+	// zero or less uses the platform default
+	public void setAcceptBacklog(int acceptBacklog) {
+		this.acceptBacklog = acceptBacklog;
+	}
+
+	public boolean isTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	// a relay forwards segments as they arrive, coalescing is left to the endpoints. with nagle on both legs a
+	// request and response exchange stalls on delayed acks. on by default, false keeps the os setting
+	public void setTcpNoDelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+	}
+
+	public boolean isSpeculativeBackEndConnect() {
+		return speculativeBackEndConnect;
+	}
+
+	// connect to the backEnd as soon as it can be routed instead of after the first frontEnd read
+	public void setSpeculativeBackEndConnect(boolean speculativeBackEndConnect) {
+		this.speculativeBackEndConnect = speculativeBackEndConnect;
+	}
+
+	public BackEndConnectionPool getBackEndConnectionPool() {
+		return backEndConnectionPool;
+	}
+
+	public BackEndConnectionPool enableBackEndConnectionPool(int minIdle, int maxIdle, Duration idleTimeout) {
+		var backEndConnectionPool = new BackEndConnectionPool(this::openBackEndSocket, getBufferPool(),
+				getMinBufferCapacity(), minIdle, maxIdle, idleTimeout);
+		setBackEndConnectionPool(backEndConnectionPool);
+		return backEndConnectionPool;
+	}
+
+	public void disableBackEndConnectionPool() {
+		setBackEndConnectionPool(null);
+	}
+
+	private synchronized void setBackEndConnectionPool(BackEndConnectionPool backEndConnectionPool) {
+		var previous = this.backEndConnectionPool;
+		this.backEndConnectionPool = backEndConnectionPool;
+		if (previous != null)
+			previous.close();
+	}
+
+	public HashedWheelTimer getTimer() {
+		return timer;
+	}
+
+	public void setTimer(HashedWheelTimer timer) {
+		this.timer = Objects.requireNonNull(timer);
+	}
+
+	public Duration getIdleReadTimeout() {
+		return idleReadTimeout;
+	}
+
+	// closes the tunnel when both sides have had a read pending for longer than the timeout, bytes flowing in one
+	// direction keep it open
+	public void setIdleReadTimeout(Duration idleReadTimeout) {
+		this.idleReadTimeout = idleReadTimeout;
+	}
+
+	public Duration getIdleWriteTimeout() {
+		return idleWriteTimeout;
+	}
+
+	// closes the tunnel when a write makes no progress for longer than the timeout
+	public void setIdleWriteTimeout(Duration idleWriteTimeout) {
+		this.idleWriteTimeout = idleWriteTimeout;
+	}
+
+	public int getMinBufferCapacity() {
+		return minBufferCapacity;
+	}
+
+	public int getMaxBufferCapacity() {
+		return maxBufferCapacity;
+	}
+
+	// relay buffers double while reads fill them and halve when they stay mostly empty
+	public void setBufferCapacity(int minBufferCapacity, int maxBufferCapacity) {
+		if (minBufferCapacity <= 0 || maxBufferCapacity < minBufferCapacity)
+			throw new IllegalArgumentException(String.format(
+					"invalid buffer capacity. minBufferCapacity:%s maxBufferCapacity:%s", minBufferCapacity,
+					maxBufferCapacity));
+		this.minBufferCapacity = minBufferCapacity;
+		this.maxBufferCapacity = maxBufferCapacity;
+	}
+
+	public int getIdleBufferCapacity() {
+		return idleBufferCapacity;
+	}
+
+	// once a source has gone idle the relay waits on a small pooled direct buffer and returns its regular one.
+	// zero or less, the default, keeps the regular buffer on idle connections
+	public void setIdleBufferCapacity(int idleBufferCapacity) {
+		this.idleBufferCapacity = Math.max(idleBufferCapacity, 0);
+		// a page per idle buffer, 256 to a slab
+		this.idleBufferPool = idleBufferCapacity <= 0 ? null
+				: new SlabBufferPool(idleBufferCapacity, idleBufferCapacity, idleBufferCapacity * 256,
+						idleBufferCapacity * 64, idleBufferCapacity * 4096L);
+	}
+
+	public AdmissionController getAdmissionController() {
+		return admissionController;
+	}
+
+	// null admits every accepted connection immediately
+	public void setAdmissionController(AdmissionController admissionController) {
+		this.admissionController = admissionController;
+	}
+
+	public CachingHostResolver getHostResolver() {
+		return hostResolver;
+	}
+
+	public void setHostResolver(CachingHostResolver hostResolver) {
+		this.hostResolver = Objects.requireNonNull(hostResolver);
+	}
+
+	public boolean isConnectionTracking() {
+		return connectionTracking;
+	}
+
+	// every tunnel started afterwards gets its own connection registry, see Tunnel.getConnectionRegistry
+	public void setConnectionTracking(boolean connectionTracking) {
+		this.connectionTracking = connectionTracking;
+	}
+
+	public int getServerNameMetricsLimit() {
+		return serverNameMetricsLimit;
+	}
+
+	// the number of sni server names given their own latency histograms, the rest share one. zero records per
+	// listener only. applies to tunnels started afterwards
+	public void setServerNameMetricsLimit(int serverNameMetricsLimit) {
+		this.serverNameMetricsLimit = Math.max(serverNameMetricsLimit, 0);
+	}
+
+	public boolean isJmxEnabled() {
+		return jmxEnabled;
+	}
+
+	// registers the latency histograms of started tunnels with the platform mbean server
+	public void setJmxEnabled(boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+
+	public Duration getRelayStallThreshold() {
+		return relayStallThreshold;
+	}
+
+	// relay writes slower than this emit a flight recorder event while a recording enables it, null disables
+	public void setRelayStallThreshold(Duration relayStallThreshold) {
+		this.relayStallThreshold = relayStallThreshold;
+	}
+
+	public Duration getBackEndConnectTimeout() {
+		return backEndConnectTimeout;
+	}
+
+	// null waits for the platform to give up on the connect
+	public void setBackEndConnectTimeout(Duration backEndConnectTimeout) {
+		this.backEndConnectTimeout = backEndConnectTimeout;
+	}
+
+	public double getHedgedConnectPercentile() {
+		return hedgedConnectPercentile;
+	}
+
+	public Duration getHedgedConnectMinDelay() {
+		return hedgedConnectMinDelay;
+	}
+
+	// a connect still pending after the percentile of recent connect latencies races a second one, zero or less
+	// disables hedging. the timer tick bounds how precisely the delay is kept
+	public void setHedgedConnect(double percentile, Duration minDelay) {
+		if (percentile >= 100)
+			throw new IllegalArgumentException("invalid percentile:" + percentile);
+		this.hedgedConnectMinDelay = Objects.requireNonNull(minDelay);
+		this.hedgedConnectPercentile = percentile;
+		this.hedgedConnectDelayNanos = -1;
+	}
+
+	public LatencyHistogram getBackEndConnectLatency() {
+		return backEndConnectLatency;
+	}
+
+	public long getHedgedConnectCount() {
+		return hedgedConnectCount.sum();
+	}
+
+	public long getConnectTimeoutCount() {
+		return connectTimeoutCount.sum();
+	}
+
+	// null until hedging is enabled and enough connects were measured
+	protected Duration getHedgedConnectDelay() {
+		if (hedgedConnectPercentile <= 0)
+			return null;
+		var delayNanos = hedgedConnectDelayNanos;
+		if (delayNanos < 0) {
+			if (backEndConnectLatency.getCount() < HEDGED_CONNECT_MIN_SAMPLES)
+				return null;
+			delayNanos = updateHedgedConnectDelay();
+		}
+		return Duration.ofNanos(delayNanos);
+	}
+
+	protected void recordBackEndConnect(long connectNanos) {
+		backEndConnectLatency.record(connectNanos);
+		var count = backEndConnectLatency.getCount();
+		if (count >= CONNECT_LATENCY_DECAY_COUNT)
+			backEndConnectLatency.decay(CONNECT_LATENCY_DECAY_COUNT);
+		if (hedgedConnectPercentile > 0 && count >= HEDGED_CONNECT_MIN_SAMPLES
+				&& count % HEDGED_CONNECT_UPDATE_INTERVAL == 0)
+			updateHedgedConnectDelay();
+	}
+
+	private long updateHedgedConnectDelay() {
+		var delayNanos = Math.max(hedgedConnectMinDelay.toNanos(),
+				backEndConnectLatency.getValueAtPercentile(hedgedConnectPercentile).toNanos());
+		this.hedgedConnectDelayNanos = delayNanos;
+		return delayNanos;
+	}
 
 	public Tunnel start(InetSocketAddress address) {
 		Objects.requireNonNull(address);
 		ByteCounter readCounter = new ByteCounter();
 		ByteCounter writeCounter = new ByteCounter();
+		var metrics = new TunnelMetrics(address.toString(), getServerNameMetricsLimit());
+		var connectionRegistry = isConnectionTracking() ? new ConnectionRegistry() : null;
+		var context = new TunnelContext(readCounter, writeCounter, metrics, connectionRegistry);
+		var jmxEnabled = isJmxEnabled();
 		Future<Void> future = RUNNING_EXECUTOR_SERVICE.submit(() -> {
 			try {
 				// connect server socket channel and register it in the selector
 				try (SERVER serverBind = serverBind(address)) {
 					logger.info("listening for connections:{}", address);
-					while (!Thread.currentThread().isInterrupted()) {
-						ABC byteChannel = createAsynchronousByteChannel(serverBind);
-						frontEndRead(byteChannel, readCounter, writeCounter);
-					}
+					// after the bind, the first use of the platform mbean server is slow
+					if (jmxEnabled)
+						metrics.registerMBeans();
+					acceptLoop(serverBind, context);
 				}
 			} catch (Throwable t) {
 				if (!(t instanceof InterruptedException) && !(t instanceof CancellationException))
 					logger.error("server unexpectedly quit. address:{}", address, t);
 				throw t;
+			} finally {
+				metrics.unregisterMBeans();
 			}
 			return null;
 		});
-		return new Tunnel(future, address, readCounter, writeCounter);
+		return new Tunnel(future, address, readCounter, writeCounter, connectionRegistry, metrics);
 	}
 
-	protected void frontEndRead(ABC byteChannel, ByteCounter readCounter, ByteCounter writeCounter) {
-		ByteBuffer buffer = ByteBuffer.allocate(BYTE_BUFFER_CAPACITY);
-		byteChannel.read(buffer, null, new CompletionHandler<Integer, Object>() {
+	protected void acceptLoop(SERVER serverBind, TunnelContext context) throws IOException {
+		while (!Thread.currentThread().isInterrupted()) {
+			ABC byteChannel = createAsynchronousByteChannel(serverBind);
+			TunnelEvents.connectionAccepted(byteChannel);
+			admit(admissionController -> frontEndRead(byteChannel, context, admissionController),
+					() -> rejectFrontEnd(byteChannel));
+		}
+	}
 
-			private AsynchronousSocketChannel backEndClient;
+	// the setup receives the controller that admitted it, or null when admission control is off. a connection
+	// without a tls handshake of its own only counts against maxTunnels
+	protected void admit(Consumer<AdmissionController> setup, Runnable reject) {
+		var admissionController = getAdmissionController();
+		if (admissionController == null) {
+			setup.accept(null);
+			return;
+		}
+		if (admissionController.admitTunnel() == AdmissionController.Admission.REJECTED) {
+			reject.run();
+			return;
+		}
+		try {
+			setup.accept(admissionController);
+		} catch (Throwable t) {
+			admissionController.tunnelClosed();
+			reject.run();
+			throw t;
+		}
+	}
 
-			@Override
-			public void completed(Integer result, Object attachment) {
-				try {
-					completedThrowing(result, attachment);
-				} catch (Throwable t) {
-					TunnelUtils.closeAndLogOnError("frontEnd completion error", t, byteChannel, backEndClient);
+	// also holds a handshake slot until the setup runs the handshakeCompleted callback, which only counts once.
+	// a queued setup runs on the executor
+	protected void admitHandshake(BiConsumer<AdmissionController, Runnable> setup, Runnable reject,
+			Executor executor) {
+		var admissionController = getAdmissionController();
+		if (admissionController == null) {
+			setup.accept(null, () -> {
+			});
+			return;
+		}
+		var completed = new AtomicBoolean();
+		Runnable handshakeCompleted = () -> {
+			if (completed.compareAndSet(false, true))
+				admissionController.handshakeCompleted();
+		};
+		Runnable release = () -> {
+			handshakeCompleted.run();
+			admissionController.tunnelClosed();
+			reject.run();
+		};
+		var admission = admissionController.admit(() -> {
+			try {
+				setup.accept(admissionController, handshakeCompleted);
+			} catch (Throwable t) {
+				release.run();
+				throw t;
+			}
+		}, command -> {
+			// a stopped tunnel shuts its executor down with connections still queued
+			try {
+				executor.execute(command);
+			} catch (RejectedExecutionException e) {
+				release.run();
+			}
+		});
+		if (admission == AdmissionController.Admission.REJECTED)
+			reject.run();
+	}
+
+	protected void rejectFrontEnd(ABC byteChannel) {
+		TunnelUtils.closeQuietly(byteChannel);
+	}
+
+	protected void frontEndRead(ABC byteChannel, TunnelContext context) {
+		frontEndRead(byteChannel, context, null);
+	}
+
+	protected void frontEndRead(ABC byteChannel, TunnelContext context, AdmissionController admissionController) {
+		var startup = new FrontEndStartup(byteChannel, context, admissionController);
+		if (isSpeculativeBackEndConnect())
+			getBackEndRoutingFuture(byteChannel).whenComplete((nil, error) -> {
+				// the handshake reports its own failure, honoring the handshake timeout logging setting
+				if (error != null) {
+					logger.debug("frontEnd routing error", error);
+					TunnelUtils.closeQuietly(byteChannel);
+				} else
+					startup.connect();
+			});
+		startup.read();
+	}
+
+	// completes once getBackEndSocketAddress can answer for the channel
+	protected CompletionStage<?> getBackEndRoutingFuture(ABC byteChannel) {
+		return CompletableFuture.completedFuture(null);
+	}
+
+	// false keeps reading into the buffer before the backEnd is chosen
+	protected boolean isBackEndRoutable(ABC byteChannel, ByteBuffer buffer) {
+		return true;
+	}
+
+	protected AsynchronousSocketChannel createBackEndClient(ABC byteChannel,
+			CompletionHandler<AsynchronousSocketChannel, Object> connectHandler, TunnelContext context)
+			throws IOException {
+		return new BackEndConnect(byteChannel, connectHandler, context, getBackEndGroup(byteChannel)).connect();
+	}
+
+	protected TunnelRelay createRelay(String name, AsynchronousByteChannel source, AsynchronousByteChannel target,
+			ByteCounter counter, ByteBuffer buffer) {
+		return createRelay(name, source, target, counter, buffer, createIdleTimeout(source, target));
+	}
+
+	protected TunnelRelay createRelay(String name, AsynchronousByteChannel source, AsynchronousByteChannel target,
+			ByteCounter counter, ByteBuffer buffer, IdleTimeout idleTimeout) {
+		var bufferSizer = new AdaptiveBufferSizer(getBufferPool(), getMinBufferCapacity(), getMaxBufferCapacity(),
+				idleBufferPool, getIdleBufferCapacity());
+		TunnelRelay relay;
+		if (isPipelinedRelay())
+			relay = new PipelinedRelay(name, source, target, counter, bufferSizer, buffer, idleTimeout);
+		else
+			relay = new Relay(name, source, target, counter, bufferSizer, buffer, idleTimeout);
+		relay.setStallThreshold(getRelayStallThreshold());
+		return relay;
+	}
+
+	protected IdleTimeout createIdleTimeout(AsynchronousByteChannel source, AsynchronousByteChannel target) {
+		var idleReadTimeout = getIdleReadTimeout();
+		var idleWriteTimeout = getIdleWriteTimeout();
+		if (idleReadTimeout == null && idleWriteTimeout == null)
+			return IdleTimeout.DISABLED;
+		return new IdleTimeout(getTimer(), idleReadTimeout, idleWriteTimeout,
+				() -> TunnelUtils.closeQuietly(source, target));
+	}
+
+	protected AsynchronousSocketChannel openBackEndClient() throws IOException {
+		return AsynchronousSocketChannel.open();
+	}
+
+	// applies the socket options to an accepted frontEnd or an opened backEnd socket
+	protected void configureSocket(NetworkChannel channel) throws IOException {
+		if (tcpNoDelay)
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+	}
+
+	private AsynchronousSocketChannel openBackEndSocket() throws IOException {
+		var client = openBackEndClient();
+		try {
+			configureSocket(client);
+		} catch (IOException | RuntimeException e) {
+			TunnelUtils.closeQuietly(client);
+			throw e;
+		}
+		return client;
+	}
+
+	protected abstract SERVER serverBind(SocketAddress address) throws IOException;
+
+	protected abstract ABC createAsynchronousByteChannel(SERVER serverBind) throws IOException;
+
+	// called on an i/o thread. only an unresolved address, InetSocketAddress.createUnresolved, goes through the host
+	// resolver and its cache. new InetSocketAddress(host, port) resolves on the calling thread and blocks it
+	protected abstract SocketAddress getBackEndSocketAddress(ABC byteChannel);
+
+	// a group replaces getBackEndSocketAddress, a failed connect then moves on to another backend of the group
+	protected BackEndGroup getBackEndGroup(ABC byteChannel) {
+		return null;
+	}
+
+	// the sni server name of the tunnel, asked once the first frontEnd read completed
+	protected Optional<String> getServerName(ABC byteChannel) {
+		return Optional.empty();
+	}
+
+	// tracks the connects made for one tunnel, a hedge or failover adds an attempt and the first to connect wins
+	private class BackEndConnect {
+
+		private final ABC byteChannel;
+		private final CompletionHandler<AsynchronousSocketChannel, Object> connectHandler;
+		private final ByteCounter writeCounter;
+		private final BackEndGroup backEndGroup;
+		private final SocketAddress clientAddress;
+		private final ConnectionRegistry.Connection connection;
+		private final TunnelMetrics metrics;
+		private final List<ConnectAttempt> attempts = new ArrayList<>(2);
+		private HashedWheelTimer.Timeout hedgeTimeout;
+		private int pendingCount;
+		private boolean done;
+		// of the backEnd relay, passed to the connect handler as the attachment
+		private IdleTimeout idleTimeout;
+
+		public BackEndConnect(ABC byteChannel, CompletionHandler<AsynchronousSocketChannel, Object> connectHandler,
+				TunnelContext context, BackEndGroup backEndGroup) {
+			this.byteChannel = byteChannel;
+			this.connectHandler = connectHandler;
+			this.writeCounter = context.getWriteCounter();
+			this.backEndGroup = backEndGroup;
+			this.clientAddress = backEndGroup == null ? null : TunnelUtils.getRemoteAddress(byteChannel);
+			var connectionRegistry = context.getConnectionRegistry();
+			this.connection = connectionRegistry == null ? null : connectionRegistry.get(byteChannel);
+			this.metrics = context.getMetrics();
+		}
+
+		public AsynchronousSocketChannel connect() throws IOException {
+			SocketAddress hostAddress;
+			BackEndGroup.BackEnd backEnd = null;
+			if (backEndGroup == null)
+				hostAddress = getBackEndSocketAddress(byteChannel);
+			else {
+				backEnd = backEndGroup.select(clientAddress);
+				hostAddress = backEnd == null ? null : backEnd.getAddress();
+			}
+			if (hostAddress == null)
+				throw new IOException(TunnelUtils.formatSummary("backEnd server discovery failed.",
+						TunnelUtils.getSummary(byteChannel)));
+			var backEndConnectionPool = getBackEndConnectionPool();
+			// pooled connections are keyed by resolved address, an uncached name skips the pool
+			var leaseAddress = getCachedAddress(hostAddress);
+			if (backEndConnectionPool != null && leaseAddress != null) {
+				var leasedBackEnd = backEnd;
+				var pooledClient = backEndConnectionPool.lease(leaseAddress,
+						(channel, buffer, heldByteCount) -> createBackEndRelay(channel, buffer, leasedBackEnd,
+								heldByteCount));
+				if (pooledClient != null) {
+					synchronized (this) {
+						done = true;
+					}
+					connectHandler.completed(pooledClient, idleTimeout);
+					return pooledClient;
+				}
+			}
+			var attempt = startAttempt(hostAddress, backEnd);
+			var hedgeDelay = getHedgedConnectDelay();
+			if (hedgeDelay != null) {
+				synchronized (this) {
+					if (!done && pendingCount > 0) {
+						hedgeTimeout = getTimer().newTimeout(this::dispatchHedge);
+						hedgeTimeout.schedule(hedgeDelay);
+					}
 				}
 			}
+			return attempt.client;
+		}
 
-			protected void completedThrowing(Integer result, Object attachment) throws IOException {
-				if (result == -1) {
-					TunnelUtils.closeQuietly(byteChannel, backEndClient);
+		private ConnectAttempt startAttempt(SocketAddress hostAddress, BackEndGroup.BackEnd backEnd)
+				throws IOException {
+			AsynchronousSocketChannel client;
+			try {
+				client = openBackEndSocket();
+			} catch (IOException | RuntimeException e) {
+				if (backEnd != null)
+					backEnd.release();
+				throw e;
+			}
+			var attempt = new ConnectAttempt(client, backEnd);
+			synchronized (this) {
+				attempts.add(attempt);
+				pendingCount++;
+			}
+			// once counted as pending, an attempt has to report its outcome
+			try {
+				attempt.connect(hostAddress);
+			} catch (Throwable t) {
+				attempt.failed(t, null);
+			}
+			return attempt;
+		}
+
+		// runs on the timer thread, which every timeout in the process shares. the hedge calls overridable routing
+		// and socket setup, so it runs on the resolver threads where its lookup would run anyway
+		private void dispatchHedge() {
+			if (!getHostResolver().execute(this::hedge))
+				logger.debug("backEnd hedged connect rejected. summary:{}", TunnelUtils.getSummary(byteChannel));
+		}
+
+		// the slowest connects race a second one to another backend of the group or to the same address
+		private void hedge() {
+			BackEndGroup.BackEnd excluded;
+			synchronized (this) {
+				if (done || pendingCount != 1 || !byteChannel.isOpen())
 					return;
+				excluded = attempts.get(attempts.size() - 1).backEnd;
+			}
+			try {
+				SocketAddress hostAddress;
+				BackEndGroup.BackEnd backEnd = null;
+				if (backEndGroup == null)
+					hostAddress = getBackEndSocketAddress(byteChannel);
+				else {
+					backEnd = backEndGroup.select(clientAddress, excluded);
+					hostAddress = backEnd == null ? null : backEnd.getAddress();
 				}
-				readCounter.count(result);
-				if (backEndClient == null) {
-					backEndClient = createBackEndClient(byteChannel, () -> {
-						this.completed(result, attachment);
-					}, writeCounter);
+				// without an address the first attempt carries on alone
+				if (hostAddress == null)
 					return;
-				}
-				buffer.flip();
-				CompletionHandler<Integer, Object> readHandler = this;
-				backEndClient.write(buffer, attachment, new CompletionHandler<Integer, Object>() {
-
-					@Override
-					public void completed(Integer result, Object attachment) {
-						buffer.compact();
-						byteChannel.read(buffer, null, readHandler);
-					}
+				hedgedConnectCount.increment();
+				startAttempt(hostAddress, backEnd);
+			} catch (Throwable t) {
+				// the first attempt is still pending
+				logger.debug("backEnd hedged connect error", t);
+			}
+		}
 
-					@Override
-					public void failed(Throwable exc, Object attachment) {
-						TunnelUtils.closeAndLogOnError("frontEnd write error", exc, byteChannel, backEndClient);
+		// false when another attempt already won
+		private boolean completed(ConnectAttempt attempt) {
+			List<ConnectAttempt> losers;
+			HashedWheelTimer.Timeout hedgeTimeout;
+			synchronized (this) {
+				pendingCount--;
+				if (done)
+					return false;
+				done = true;
+				losers = new ArrayList<>(attempts);
+				losers.remove(attempt);
+				hedgeTimeout = this.hedgeTimeout;
+			}
+			if (hedgeTimeout != null)
+				hedgeTimeout.cancel();
+			for (var loser : losers)
+				loser.abandon();
+			var buffer = getBufferPool().acquire(getMinBufferCapacity());
+			createBackEndRelay(attempt.client, buffer, attempt.backEnd, 0).start();
+			connectHandler.completed(attempt.client, idleTimeout);
+			return true;
+		}
+
+		private void failed(ConnectAttempt attempt, Throwable exc) {
+			boolean failover;
+			synchronized (this) {
+				pendingCount--;
+				if (done || pendingCount > 0)
+					return;
+				failover = backEndGroup != null && attempts.size() < backEndGroup.getBackEnds().size()
+						&& byteChannel.isOpen();
+			}
+			if (failover) {
+				logger.debug("backEnd connect error, trying another backEnd. summary:{}",
+						TunnelUtils.getSummary(byteChannel), exc);
+				try {
+					var backEnd = backEndGroup.select(clientAddress, attempt.backEnd);
+					if (backEnd != null) {
+						startAttempt(backEnd.getAddress(), backEnd);
+						return;
 					}
-				});
+				} catch (Throwable t) {
+					exc = t;
+				}
+			}
+			HashedWheelTimer.Timeout hedgeTimeout;
+			synchronized (this) {
+				done = true;
+				hedgeTimeout = this.hedgeTimeout;
+			}
+			if (hedgeTimeout != null)
+				hedgeTimeout.cancel();
+			TunnelUtils.closeAndLogOnError("backEnd connect error", exc, attempt.client, byteChannel);
+			connectHandler.failed(exc, null);
+		}
 
+		// null when the address is a host name that is not resolved yet
+		private SocketAddress getCachedAddress(SocketAddress hostAddress) {
+			if (hostAddress instanceof InetSocketAddress && ((InetSocketAddress) hostAddress).isUnresolved())
+				return getHostResolver().getIfPresent((InetSocketAddress) hostAddress);
+			return hostAddress;
+		}
+
+		private TunnelRelay createBackEndRelay(AsynchronousSocketChannel channel, ByteBuffer buffer,
+				BackEndGroup.BackEnd backEnd, long heldByteCount) {
+			idleTimeout = createIdleTimeout(channel, byteChannel);
+			var relay = createRelay("backEnd", channel, byteChannel, writeCounter, buffer, idleTimeout);
+			if (backEnd != null)
+				relay.setTerminationListener(backEnd::release);
+			LongConsumer readListener = metrics != null ? new BackEndReadListener()
+					: connection != null ? connection::backEndRead : null;
+			if (readListener != null)
+				relay.setReadListener(readListener);
+			// a pooled channel read these before the relay existed, they are relayed first
+			if (heldByteCount > 0) {
+				writeCounter.count(heldByteCount);
+				if (readListener != null)
+					readListener.accept(heldByteCount);
 			}
+			return relay;
+		}
+
+		// the relay reads one at a time, so the first read needs no synchronization
+		private class BackEndReadListener implements LongConsumer {
+
+			private final long connectedAt = System.nanoTime();
+			private final String serverName = metrics.isServerNameTracking() ? getServerName(byteChannel).orElse(null)
+					: null;
+			private boolean firstRead = true;
 
 			@Override
-			public void failed(Throwable exc, Object attachment) {
-				if (TunnelUtils.isCertificateUnknownError(exc))
-					return;
-				TunnelUtils.closeAndLogOnError("frontEnd read error", exc, byteChannel, backEndClient);
+			public void accept(long byteCount) {
+				if (connection != null)
+					connection.backEndRead(byteCount);
+				if (firstRead && byteCount > 0) {
+					firstRead = false;
+					metrics.record(TunnelMetrics.Phase.BACKEND_FIRST_BYTE, System.nanoTime() - connectedAt, serverName);
+				}
 			}
-		});
-	}
+		}
 
-	protected AsynchronousSocketChannel createBackEndClient(ABC byteChannel, Runnable connectCompleteCallback,
-			ByteCounter writeCounter) throws IOException {
-		SocketAddress hostAddress = getBackEndSocketAddress(byteChannel);
-		if (hostAddress == null)
-			throw new IOException(
-					TunnelUtils.formatSummary("backEnd server discovery failed.", TunnelUtils.getSummary(byteChannel)));
-		AsynchronousSocketChannel client = AsynchronousSocketChannel.open();
-		ByteBuffer buffer = ByteBuffer.allocate(BYTE_BUFFER_CAPACITY);
-		var readHandler = new CompletionHandler<Integer, Object>() {
+		private class ConnectAttempt implements CompletionHandler<Void, Object> {
 
-			@Override
-			public void completed(Integer result, Object attachment) {
-				if (result == -1) {
-					TunnelUtils.closeQuietly(client, byteChannel);
+			private final AsynchronousSocketChannel client;
+			private final BackEndGroup.BackEnd backEnd;
+			private HashedWheelTimer.Timeout connectTimeout;
+			private TunnelEvents.BackEndConnect event;
+			private SocketAddress hostAddress;
+			private long startedAt;
+			private volatile boolean timedOut;
+			private volatile boolean abandoned;
+			// guarded by this, once resolved the connect callback reports the outcome
+			private boolean resolved;
+
+			public ConnectAttempt(AsynchronousSocketChannel client, BackEndGroup.BackEnd backEnd) {
+				this.client = client;
+				this.backEnd = backEnd;
+			}
+
+			// the connect timeout covers resolving the address
+			public void connect(SocketAddress hostAddress) {
+				this.hostAddress = hostAddress;
+				event = TunnelEvents.beginBackEndConnect(byteChannel);
+				var timeout = getBackEndConnectTimeout();
+				if (timeout != null) {
+					connectTimeout = getTimer().newTimeout(this::timeout);
+					connectTimeout.schedule(timeout);
+				}
+				var cachedAddress = getCachedAddress(hostAddress);
+				if (cachedAddress != null) {
+					connectResolved(cachedAddress);
 					return;
 				}
-				writeCounter.count(result);
-				buffer.flip();
-				CompletionHandler<Integer, Object> readHandler = this;
-				byteChannel.write(buffer, attachment, new CompletionHandler<Integer, Object>() {
-
-					@Override
-					public void completed(Integer result, Object attachment) {
-						buffer.compact();
-						client.read(buffer, null, readHandler);
-					}
-
-					@Override
-					public void failed(Throwable exc, Object attachment) {
-						TunnelUtils.closeAndLogOnError("backEnd write error", exc, client, byteChannel);
-					}
+				getHostResolver().resolve((InetSocketAddress) hostAddress).whenComplete((resolvedAddress, error) -> {
+					if (!resolved())
+						return;
+					if (error == null)
+						connectResolved(resolvedAddress);
+					else
+						failed(error instanceof CompletionException && error.getCause() != null ? error.getCause()
+								: error, null);
 				});
 			}
 
-			@Override
-			public void failed(Throwable exc, Object attachment) {
-				TunnelUtils.closeAndLogOnError("backEnd read error", exc, client, byteChannel);
+			// false once a timeout or abandon already failed the attempt
+			private synchronized boolean resolved() {
+				if (timedOut || abandoned)
+					return false;
+				resolved = true;
+				return true;
+			}
 
+			private void connectResolved(SocketAddress hostAddress) {
+				if (!resolved())
+					return;
+				this.hostAddress = hostAddress;
+				startedAt = System.nanoTime();
+				client.connect(hostAddress, null, this);
 			}
-		};
-		client.connect(hostAddress, null, new CompletionHandler<Void, Object>() {
+
 			@Override
 			public void completed(Void result, Object attachment) {
-				client.read(buffer, null, readHandler);
-				connectCompleteCallback.run();
+				cancelTimeout();
+				var connectNanos = System.nanoTime() - startedAt;
+				if (event != null)
+					TunnelEvents.endBackEndConnect(event, hostAddress, TunnelEvents.OUTCOME_COMPLETE, null);
+				// a connect that lost the race still counts as a latency sample
+				recordBackEndConnect(connectNanos);
+				if (backEnd != null)
+					backEnd.connectSucceeded(connectNanos);
+				if (BackEndConnect.this.completed(this))
+					return;
+				TunnelUtils.closeQuietly(client);
+				if (backEnd != null)
+					backEnd.release();
 			}
 
 			@Override
 			public void failed(Throwable exc, Object attachment) {
-				TunnelUtils.closeAndLogOnError("backEnd connect error", exc, client, byteChannel);
+				cancelTimeout();
+				TunnelUtils.closeQuietly(client);
+				if (backEnd != null) {
+					// a connect closed because another one won says nothing about this backend
+					if (!abandoned)
+						backEnd.connectFailed();
+					backEnd.release();
+				}
+				if (timedOut)
+					exc = new InterruptedByTimeoutException();
+				if (event != null) {
+					var outcome = timedOut ? TunnelEvents.OUTCOME_TIMEOUT
+							: abandoned ? TunnelEvents.OUTCOME_ABANDONED : TunnelEvents.OUTCOME_FAILED;
+					TunnelEvents.endBackEndConnect(event, hostAddress, outcome, exc);
+				}
+				BackEndConnect.this.failed(this, exc);
 			}
-		});
-		return client;
+
+			// closing the channel fails the pending connect, a pending resolution is not waited for
+			private void timeout() {
+				boolean resolving;
+				synchronized (this) {
+					timedOut = true;
+					resolving = !resolved;
+				}
+				connectTimeoutCount.increment();
+				TunnelUtils.closeQuietly(client);
+				if (resolving)
+					failed(new InterruptedByTimeoutException(), null);
+			}
+
+			// the connect callback still runs and releases the backend, unless the address is still resolving
+			private void abandon() {
+				boolean resolving;
+				synchronized (this) {
+					abandoned = true;
+					resolving = !resolved;
+				}
+				cancelTimeout();
+				TunnelUtils.closeQuietly(client);
+				if (resolving)
+					failed(new AsynchronousCloseException(), null);
+			}
+
+			private void cancelTimeout() {
+				if (connectTimeout != null)
+					connectTimeout.cancel();
+			}
+		}
 	}
 
-	protected abstract SERVER serverBind(SocketAddress address) throws IOException;
+	private class FrontEndStartup implements CompletionHandler<Integer, Object> {
 
-	protected abstract ABC createAsynchronousByteChannel(SERVER serverBind) throws IOException;
+		private final CompletionHandler<AsynchronousSocketChannel, Object> connectHandler = new CompletionHandler<>() {
 
-	protected abstract SocketAddress getBackEndSocketAddress(ABC byteChannel);
+			@Override
+			public void completed(AsynchronousSocketChannel client, Object attachment) {
+				boolean start;
+				boolean close;
+				long connectNanos;
+				if (connection != null)
+					connection.backEndConnected(client);
+				synchronized (FrontEndStartup.this) {
+					backEndClient = client;
+					backEndIdleTimeout = (IdleTimeout) attachment;
+					connected = true;
+					start = readCompleted && !failed;
+					close = failed;
+					connectNanos = System.nanoTime() - connectStartedAt;
+				}
+				if (metrics != null)
+					metrics.record(TunnelMetrics.Phase.BACKEND_CONNECT, connectNanos, getMetricsServerName());
+				// a failover connect can complete after the frontEnd failed
+				if (close)
+					TunnelUtils.closeQuietly(client);
+				else if (start)
+					start();
+			}
+
+			@Override
+			public void failed(Throwable exc, Object attachment) {
+				// createBackEndClient has already closed both channels and logged
+				fail(null, null);
+			}
+		};
+		private final ABC byteChannel;
+		private final TunnelContext context;
+		private final ByteCounter readCounter;
+		private final ByteBuffer buffer;
+		// released here only until the relay takes ownership of the buffer
+		private final Closeable bufferRelease;
+		private final AdmissionController admissionController;
+		private final ConnectionRegistry.Connection connection;
+		private final TunnelMetrics metrics;
+		// bounds the reads before routing, a client that never completes its first message holds no slot for good
+		private final IdleTimeout startupTimeout;
+		private final long startedAt = System.nanoTime();
+		// null without a recording
+		private TunnelEvents.TunnelClosed tunnelEvent;
+		private AsynchronousSocketChannel backEndClient;
+		private IdleTimeout backEndIdleTimeout;
+		private long connectStartedAt;
+		private boolean firstByteRead;
+		private String metricsServerName;
+		private boolean readPending;
+		private boolean readCompleted;
+		private boolean connectStarted;
+		private boolean connected;
+		private boolean failed;
+
+		public FrontEndStartup(ABC byteChannel, TunnelContext context, AdmissionController admissionController) {
+			var bufferPool = getBufferPool();
+			this.byteChannel = byteChannel;
+			this.context = context;
+			this.readCounter = context.getReadCounter();
+			this.buffer = bufferPool.acquire(STARTUP_BUFFER_CAPACITY);
+			this.bufferRelease = TunnelUtils.releaseOnce(bufferPool, buffer);
+			this.admissionController = admissionController;
+			var connectionRegistry = context.getConnectionRegistry();
+			this.connection = connectionRegistry == null ? null
+					: connectionRegistry.register(byteChannel, TunnelUtils.getRemoteAddress(byteChannel));
+			this.metrics = context.getMetrics();
+			this.tunnelEvent = TunnelEvents.beginTunnel(byteChannel);
+			var idleReadTimeout = getIdleReadTimeout();
+			this.startupTimeout = idleReadTimeout == null ? IdleTimeout.DISABLED
+					: new IdleTimeout(getTimer(), idleReadTimeout, null, () -> fail(null, null));
+		}
+
+		public void read() {
+			synchronized (this) {
+				readPending = true;
+			}
+			startupTimeout.readStarted();
+			startupTimeout.start();
+			byteChannel.read(buffer, null, this);
+		}
+
+		@Override
+		public void completed(Integer result, Object attachment) {
+			try {
+				completedThrowing(result);
+			} catch (Throwable t) {
+				fail("frontEnd completion error", t);
+			}
+		}
+
+		protected void completedThrowing(int result) {
+			if (result == -1) {
+				synchronized (this) {
+					readPending = false;
+				}
+				fail(null, null);
+				return;
+			}
+			readCounter.count(result);
+			if (connection != null)
+				connection.frontEndRead(result);
+			// reads before routing happen one at a time
+			if (metrics != null && !firstByteRead && result > 0) {
+				firstByteRead = true;
+				metrics.record(TunnelMetrics.Phase.FRONTEND_FIRST_BYTE, System.nanoTime() - startedAt,
+						getMetricsServerName());
+			}
+			if (!isBackEndRoutable(byteChannel, buffer)) {
+				// every read that makes progress restarts the timeout
+				startupTimeout.readStarted();
+				byteChannel.read(buffer, null, this);
+				return;
+			}
+			startupTimeout.cancel();
+			if (connection != null) {
+				connection.setServerName(getServerName(byteChannel).orElse(null));
+				connection.setState(ConnectionRegistry.State.CONNECTING);
+			}
+			boolean connect;
+			boolean start;
+			synchronized (this) {
+				readPending = false;
+				readCompleted = true;
+				connect = !connectStarted;
+				start = connected && !failed;
+			}
+			if (connect)
+				connect();
+			else if (start)
+				start();
+		}
+
+		@Override
+		public void failed(Throwable exc, Object attachment) {
+			synchronized (this) {
+				readPending = false;
+			}
+			if (TunnelUtils.isCertificateUnknownError(exc))
+				fail(null, null);
+			else
+				fail("frontEnd read error", exc);
+		}
+
+		public void connect() {
+			synchronized (this) {
+				if (connectStarted || failed)
+					return;
+				connectStarted = true;
+				connectStartedAt = System.nanoTime();
+			}
+			AsynchronousSocketChannel client;
+			try {
+				client = createBackEndClient(byteChannel, connectHandler, context);
+			} catch (Throwable t) {
+				fail("frontEnd completion error", t);
+				return;
+			}
+			boolean close;
+			synchronized (this) {
+				backEndClient = client;
+				close = failed;
+			}
+			if (close)
+				TunnelUtils.closeQuietly(client);
+		}
+
+		protected void start() {
+			var idleTimeout = createIdleTimeout(byteChannel, backEndClient);
+			idleTimeout.link(backEndIdleTimeout);
+			var relay = createRelay("frontEnd", byteChannel, backEndClient, readCounter, buffer, idleTimeout);
+			if (connection != null) {
+				relay.setReadListener(connection::frontEndRead);
+				connection.setState(ConnectionRegistry.State.RELAYING);
+			}
+			if (admissionController != null || connection != null || metrics != null)
+				relay.setTerminationListener(this::tunnelClosed);
+			relay.start();
+		}
+
+		private void tunnelClosed() {
+			if (metrics != null)
+				metrics.record(TunnelMetrics.Phase.LIFETIME, System.nanoTime() - startedAt, getMetricsServerName());
+			endTunnelEvent();
+			if (connection != null)
+				connection.closed();
+			if (admissionController != null)
+				admissionController.tunnelClosed();
+		}
+
+		// a failed startup and the relay termination can both get here, the event commits once
+		private void endTunnelEvent() {
+			TunnelEvents.TunnelClosed event;
+			synchronized (this) {
+				event = tunnelEvent;
+				tunnelEvent = null;
+			}
+			if (event != null)
+				TunnelEvents.endTunnel(event, connection);
+		}
+
+		// looked up once the name is known, a speculative connect can complete before the first read
+		private synchronized String getMetricsServerName() {
+			if (metricsServerName == null && metrics.isServerNameTracking())
+				metricsServerName = getServerName(byteChannel).orElse(null);
+			return metricsServerName;
+		}
+
+		protected void fail(String message, Throwable error) {
+			AsynchronousSocketChannel client;
+			boolean release;
+			boolean closeTunnel;
+			synchronized (this) {
+				closeTunnel = !failed && admissionController != null;
+				failed = true;
+				client = backEndClient;
+				// a pending read still owns the buffer and releases it when it fails
+				release = !readPending;
+			}
+			startupTimeout.cancel();
+			if (error == null)
+				TunnelUtils.closeQuietly(byteChannel, client);
+			else
+				TunnelUtils.closeAndLogOnError(message, error, byteChannel, client);
+			if (release)
+				TunnelUtils.closeQuietly(bufferRelease);
+			endTunnelEvent();
+			if (connection != null)
+				connection.closed();
+			if (closeTunnel)
+				admissionController.tunnelClosed();
+		}
+	}
 
-}
\ No newline at end of file
+}
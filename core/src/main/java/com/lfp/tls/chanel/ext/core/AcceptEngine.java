@@ -0,0 +1,93 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+public class AcceptEngine {
+	private static final Class<?> THIS_CLASS = new Object() {
+	}.getClass().getEnclosingClass();
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
+
+	private final LongAdder acceptedCount = new LongAdder();
+	private final ServerSocketChannel serverSocketChannel;
+	private final int acceptorCount;
+	private final Executor setupExecutor;
+	private final Consumer<SocketChannel> acceptHandler;
+
+	public AcceptEngine(ServerSocketChannel serverSocketChannel, int acceptorCount, Executor setupExecutor,
+			Consumer<SocketChannel> acceptHandler) {
+		this.serverSocketChannel = Objects.requireNonNull(serverSocketChannel);
+		this.acceptorCount = Math.max(acceptorCount, 1);
+		this.setupExecutor = Objects.requireNonNull(setupExecutor);
+		this.acceptHandler = Objects.requireNonNull(acceptHandler);
+	}
+
+	// blocks the calling thread as the first acceptor until it is interrupted or the server socket closes
+	public void run() throws IOException {
+		serverSocketChannel.configureBlocking(false);
+		List<Thread> acceptorThreads = new ArrayList<>();
+		for (int i = 1; i < acceptorCount; i++) {
+			var thread = new Thread(() -> {
+				try {
+					acceptLoop();
+				} catch (Throwable t) {
+					if (serverSocketChannel.isOpen())
+						logger.error("acceptor unexpectedly quit", t);
+				}
+			}, String.format("acceptor-%s", i));
+			thread.setDaemon(true);
+			thread.start();
+			acceptorThreads.add(thread);
+		}
+		try {
+			acceptLoop();
+		} finally {
+			acceptorThreads.forEach(Thread::interrupt);
+		}
+	}
+
+	protected void acceptLoop() throws IOException {
+		try (var selector = Selector.open()) {
+			serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+			while (!Thread.currentThread().isInterrupted() && serverSocketChannel.isOpen()) {
+				selector.select();
+				selector.selectedKeys().clear();
+				// drain the backlog, another acceptor may win some of these and leave us with null
+				SocketChannel socketChannel;
+				while ((socketChannel = serverSocketChannel.accept()) != null) {
+					acceptedCount.increment();
+					dispatch(socketChannel);
+				}
+			}
+		}
+	}
+
+	protected void dispatch(SocketChannel socketChannel) {
+		try {
+			setupExecutor.execute(() -> {
+				try {
+					acceptHandler.accept(socketChannel);
+				} catch (Throwable t) {
+					TunnelUtils.closeAndLogOnError("connection setup error", t, socketChannel);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			TunnelUtils.closeAndLogOnError("connection setup rejected", e, socketChannel);
+		}
+	}
+
+	public long getAcceptedCount() {
+		return acceptedCount.sum();
+	}
+
+}
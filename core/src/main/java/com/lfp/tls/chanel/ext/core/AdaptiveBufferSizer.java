@@ -0,0 +1,115 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+// not thread safe, a relay calls it from one completion at a time or under its own lock
+public class AdaptiveBufferSizer {
+
+	// a source that sent nothing for this long is idle, a steady stream completes reads far more often
+	private static final long QUIET_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	public static AdaptiveBufferSizer fixed(BufferPool bufferPool, int capacity) {
+		return new AdaptiveBufferSizer(bufferPool, capacity, capacity, null, 0);
+	}
+
+	private final BufferPool bufferPool;
+	private final int minCapacity;
+	private final int maxCapacity;
+	private final BufferPool idleBufferPool;
+	private final int idleCapacity;
+	private int capacity;
+	private int shrinkCandidates;
+	// true once a short read completed after the source sent nothing for QUIET_NANOS, the next read is then
+	// likely to wait as well. a short read alone says nothing, a steady stream drains the socket on most reads
+	private boolean quiet;
+	private long lastReadAt = System.nanoTime();
+	private ByteBuffer idleBuffer;
+
+	// a null idle pool or an idle capacity of zero or less keeps a pooled buffer on reads that are likely to wait
+	public AdaptiveBufferSizer(BufferPool bufferPool, int minCapacity, int maxCapacity, BufferPool idleBufferPool,
+			int idleCapacity) {
+		this.bufferPool = Objects.requireNonNull(bufferPool);
+		if (minCapacity <= 0 || maxCapacity < minCapacity)
+			throw new IllegalArgumentException(
+					String.format("invalid capacity range. minCapacity:%s maxCapacity:%s", minCapacity, maxCapacity));
+		this.minCapacity = minCapacity;
+		this.maxCapacity = maxCapacity;
+		this.idleBufferPool = idleBufferPool;
+		this.idleCapacity = idleBufferPool == null ? 0 : Math.max(0, idleCapacity);
+		this.capacity = minCapacity;
+	}
+
+	public void record(int bytesRead, int bufferCapacity) {
+		long now = System.nanoTime();
+		long sinceLastRead = now - lastReadAt;
+		lastReadAt = now;
+		if (bytesRead >= bufferCapacity) {
+			quiet = false;
+			shrinkCandidates = 0;
+			// a full idle buffer only says traffic resumed, not that the pooled size is too small
+			if (bufferCapacity >= capacity)
+				capacity = Math.min(maxCapacity, capacity << 1);
+			return;
+		}
+		quiet = sinceLastRead >= QUIET_NANOS;
+		if (bytesRead > capacity >> 1) {
+			shrinkCandidates = 0;
+			return;
+		}
+		// two small reads in a row before shrinking, a single short read is usually the tail of a burst
+		if (++shrinkCandidates < 2)
+			return;
+		shrinkCandidates = 0;
+		capacity = Math.max(minCapacity, capacity >> 1);
+	}
+
+	public boolean isQuiet() {
+		return quiet;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	// returns a cleared buffer sized for the next read, current is reused or released
+	public ByteBuffer nextReadBuffer(ByteBuffer current) {
+		if (current != null && current == idleBuffer) {
+			if (useIdleBuffer())
+				return current.clear();
+			release(current);
+			return bufferPool.acquire(capacity);
+		}
+		// a second buffer of a pipelined relay stays pooled, only one read waits at a time
+		if (useIdleBuffer() && idleBuffer == null) {
+			release(current);
+			idleBuffer = idleBufferPool.acquire(idleCapacity);
+			return idleBuffer;
+		}
+		if (current != null && fits(current))
+			return current.clear();
+		release(current);
+		return bufferPool.acquire(capacity);
+	}
+
+	public void release(ByteBuffer buffer) {
+		if (buffer == null)
+			return;
+		if (buffer == idleBuffer) {
+			idleBuffer = null;
+			idleBufferPool.release(buffer);
+		} else
+			bufferPool.release(buffer);
+	}
+
+	private boolean useIdleBuffer() {
+		return quiet && idleCapacity > 0;
+	}
+
+	// pools round capacities up, anything below the next size class is kept
+	private boolean fits(ByteBuffer buffer) {
+		return buffer.capacity() >= capacity && buffer.capacity() < capacity << 1;
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+// bounds connection setup work so that an accept burst queues or is reset instead of timing out every handshake
+public class AdmissionController {
+	private static final Class<?> THIS_CLASS = new Object() {
+	}.getClass().getEnclosingClass();
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
+
+	public static enum Admission {
+		ADMITTED, QUEUED, REJECTED;
+	}
+
+	private final LongAdder admittedCount = new LongAdder();
+	private final LongAdder queuedCount = new LongAdder();
+	private final LongAdder rejectedCount = new LongAdder();
+	private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+	private final int maxHandshakes;
+	private final int maxTunnels;
+	private final int maxQueued;
+	// guarded by queue
+	private int handshakeCount;
+	private int tunnelCount;
+
+	// zero or less disables the respective limit
+	public AdmissionController(int maxHandshakes, int maxTunnels, int maxQueued) {
+		this.maxHandshakes = maxHandshakes;
+		this.maxTunnels = maxTunnels;
+		this.maxQueued = Math.max(0, maxQueued);
+	}
+
+	// an admitted handshake runs on the calling thread, a queued one is handed to the executor once a slot frees
+	public Admission admit(Runnable handshake, Executor executor) {
+		Objects.requireNonNull(handshake);
+		Objects.requireNonNull(executor);
+		synchronized (queue) {
+			if (maxTunnels > 0 && tunnelCount >= maxTunnels) {
+				rejectedCount.increment();
+				return Admission.REJECTED;
+			}
+			if (maxHandshakes > 0 && handshakeCount >= maxHandshakes) {
+				if (queue.size() >= maxQueued) {
+					rejectedCount.increment();
+					return Admission.REJECTED;
+				}
+				queue.add(() -> executor.execute(() -> runQueued(handshake)));
+				tunnelCount++;
+				queuedCount.increment();
+				return Admission.QUEUED;
+			}
+			handshakeCount++;
+			tunnelCount++;
+		}
+		admittedCount.increment();
+		handshake.run();
+		return Admission.ADMITTED;
+	}
+
+	// a connection without a handshake of its own only counts against maxTunnels
+	public Admission admitTunnel() {
+		synchronized (queue) {
+			if (maxTunnels > 0 && tunnelCount >= maxTunnels) {
+				rejectedCount.increment();
+				return Admission.REJECTED;
+			}
+			tunnelCount++;
+		}
+		admittedCount.increment();
+		return Admission.ADMITTED;
+	}
+
+	// called once per admitted handshake when it succeeds or fails, from whichever thread observed that
+	public void handshakeCompleted() {
+		Runnable dispatch;
+		synchronized (queue) {
+			dispatch = queue.poll();
+			if (dispatch == null) {
+				handshakeCount--;
+				return;
+			}
+		}
+		// the freed slot passes straight to the queued handshake, which never runs on this thread
+		admittedCount.increment();
+		try {
+			dispatch.run();
+		} catch (Throwable t) {
+			logger.error("queued handshake dispatch error", t);
+		}
+	}
+
+	private static void runQueued(Runnable handshake) {
+		try {
+			handshake.run();
+		} catch (Throwable t) {
+			logger.error("queued handshake error", t);
+		}
+	}
+
+	// called once per admitted or queued connection when it closes, handshake or not
+	public void tunnelClosed() {
+		synchronized (queue) {
+			tunnelCount--;
+		}
+	}
+
+	public int getMaxHandshakes() {
+		return maxHandshakes;
+	}
+
+	public int getMaxTunnels() {
+		return maxTunnels;
+	}
+
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	public int getHandshakeCount() {
+		synchronized (queue) {
+			return handshakeCount;
+		}
+	}
+
+	public int getTunnelCount() {
+		synchronized (queue) {
+			return tunnelCount;
+		}
+	}
+
+	public int getQueueSize() {
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+
+	public long getAdmittedCount() {
+		return admittedCount.sum();
+	}
+
+	public long getQueuedCount() {
+		return queuedCount.sum();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"AdmissionController [handshakeCount=%s, tunnelCount=%s, queueSize=%s, admittedCount=%s, queuedCount=%s, rejectedCount=%s]",
+				getHandshakeCount(), getTunnelCount(), getQueueSize(), getAdmittedCount(), getQueuedCount(),
+				getRejectedCount());
+	}
+
+}
@@ -0,0 +1,310 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BackEndConnectionPool implements Closeable {
+	private static final Class<?> THIS_CLASS = new Object() {
+	}.getClass().getEnclosingClass();
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
+	private static final Duration MAINTENANCE_INTERVAL = Duration.ofSeconds(1);
+
+	private final ConcurrentHashMap<SocketAddress, AddressPool> addressPools = new ConcurrentHashMap<>();
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictedCount = new LongAdder();
+	private final Callable<AsynchronousSocketChannel> channelFactory;
+	private final BufferPool bufferPool;
+	private final int bufferCapacity;
+	private final int minIdle;
+	private final int maxIdle;
+	private final long idleTimeoutNanos;
+	private final ScheduledExecutorService maintenanceExecutor;
+	private volatile boolean closed;
+
+	public BackEndConnectionPool(Callable<AsynchronousSocketChannel> channelFactory, BufferPool bufferPool,
+			int bufferCapacity, int minIdle, int maxIdle, Duration idleTimeout) {
+		this.channelFactory = Objects.requireNonNull(channelFactory);
+		this.bufferPool = Objects.requireNonNull(bufferPool);
+		this.bufferCapacity = bufferCapacity;
+		this.minIdle = Math.max(minIdle, 0);
+		this.maxIdle = Math.max(maxIdle, this.minIdle);
+		this.idleTimeoutNanos = Objects.requireNonNull(idleTimeout).toNanos();
+		this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			var thread = new Thread(r, "backend-connection-pool");
+			thread.setDaemon(true);
+			return thread;
+		});
+		var intervalMillis = MAINTENANCE_INTERVAL.toMillis();
+		this.maintenanceExecutor.scheduleWithFixedDelay(this::maintain, intervalMillis, intervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	// starts keeping minIdle connections to the address before the first tunnel asks for one
+	public void prewarm(SocketAddress address) {
+		getAddressPool(address).replenish();
+	}
+
+	// hands over an idle connected channel and its pending liveness read, or returns null on a miss
+	public AsynchronousSocketChannel lease(SocketAddress address, TunnelRelayFactory relayFactory) {
+		var addressPool = getAddressPool(address);
+		try {
+			IdleChannel idleChannel;
+			while ((idleChannel = addressPool.idleChannels.pollLast()) != null) {
+				addressPool.idleCount.decrementAndGet();
+				if (idleChannel.lease(relayFactory)) {
+					hitCount.increment();
+					return idleChannel.channel;
+				}
+				idleChannel.evict();
+			}
+			missCount.increment();
+			return null;
+		} finally {
+			addressPool.replenish();
+		}
+	}
+
+	protected void maintain() {
+		try {
+			var expiredBefore = System.nanoTime() - idleTimeoutNanos;
+			for (var addressPool : addressPools.values()) {
+				for (var idleChannel : addressPool.idleChannels) {
+					if (idleChannel.idleSinceNanos - expiredBefore < 0)
+						idleChannel.evict();
+				}
+				addressPool.replenish();
+			}
+		} catch (Throwable t) {
+			logger.error("backend connection pool maintenance error", t);
+		}
+	}
+
+	public int getIdleCount(SocketAddress address) {
+		var addressPool = addressPools.get(address);
+		return addressPool == null ? 0 : addressPool.idleCount.get();
+	}
+
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	public long getEvictedCount() {
+		return evictedCount.sum();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		maintenanceExecutor.shutdownNow();
+		for (var addressPool : addressPools.values())
+			for (var idleChannel : addressPool.idleChannels)
+				idleChannel.evict();
+	}
+
+	private AddressPool getAddressPool(SocketAddress address) {
+		Objects.requireNonNull(address);
+		return addressPools.computeIfAbsent(address, AddressPool::new);
+	}
+
+	public static interface TunnelRelayFactory {
+
+		// the first heldByteCount bytes of the buffer were read while the channel sat idle, before any tunnel
+		TunnelRelay create(AsynchronousSocketChannel channel, ByteBuffer buffer, long heldByteCount);
+	}
+
+	private class AddressPool {
+
+		private final ConcurrentLinkedDeque<IdleChannel> idleChannels = new ConcurrentLinkedDeque<>();
+		private final AtomicInteger idleCount = new AtomicInteger();
+		private final AtomicInteger connectingCount = new AtomicInteger();
+		private final SocketAddress address;
+
+		public AddressPool(SocketAddress address) {
+			this.address = address;
+		}
+
+		public void replenish() {
+			while (!closed) {
+				var connecting = connectingCount.get();
+				if (idleCount.get() + connecting >= minIdle)
+					return;
+				if (connectingCount.compareAndSet(connecting, connecting + 1))
+					connect();
+			}
+		}
+
+		private void connect() {
+			AsynchronousSocketChannel channel;
+			try {
+				channel = channelFactory.call();
+			} catch (Exception e) {
+				connectingCount.decrementAndGet();
+				logger.warn("backend connection pool open error. address:{}", address, e);
+				return;
+			}
+			channel.connect(address, null, new CompletionHandler<Void, Object>() {
+
+				@Override
+				public void completed(Void result, Object attachment) {
+					var idleChannel = new IdleChannel(AddressPool.this, channel);
+					if (closed || idleCount.incrementAndGet() > maxIdle) {
+						idleCount.decrementAndGet();
+						connectingCount.decrementAndGet();
+						TunnelUtils.closeQuietly(channel);
+						return;
+					}
+					idleChannels.offerLast(idleChannel);
+					connectingCount.decrementAndGet();
+					idleChannel.read();
+				}
+
+				@Override
+				public void failed(Throwable exc, Object attachment) {
+					connectingCount.decrementAndGet();
+					TunnelUtils.closeQuietly(channel);
+					// retried on the next maintenance pass rather than in a tight loop
+					logger.debug("backend connection pool connect error. address:{}", address, exc);
+				}
+			});
+		}
+	}
+
+	private class IdleChannel implements CompletionHandler<Integer, Void> {
+
+		private final AddressPool addressPool;
+		private final AsynchronousSocketChannel channel;
+		private final long idleSinceNanos = System.nanoTime();
+		private ByteBuffer buffer;
+		private CompletionHandler<Integer, Void> lessee;
+		private long heldByteCount;
+		private boolean readPending;
+		private boolean leased;
+		private boolean evicted;
+
+		public IdleChannel(AddressPool addressPool, AsynchronousSocketChannel channel) {
+			this.addressPool = addressPool;
+			this.channel = channel;
+			this.buffer = bufferPool.acquire(bufferCapacity);
+		}
+
+		// an outstanding read is how an idle channel notices the backend closing or resetting it
+		public void read() {
+			synchronized (this) {
+				readPending = true;
+			}
+			channel.read(buffer, null, this);
+		}
+
+		public boolean lease(TunnelRelayFactory relayFactory) {
+			TunnelRelay relay;
+			boolean start;
+			synchronized (this) {
+				if (leased || evicted || !channel.isOpen())
+					return false;
+				leased = true;
+				relay = relayFactory.create(channel, buffer, heldByteCount);
+				buffer = null;
+				if (readPending)
+					lessee = relay.adoptPendingRead();
+				start = !readPending;
+			}
+			// bytes the backend sent while idle are still in the buffer and get relayed first
+			if (start)
+				relay.start();
+			return true;
+		}
+
+		public void evict() {
+			synchronized (this) {
+				if (leased || evicted)
+					return;
+				evicted = true;
+			}
+			if (addressPool.idleChannels.remove(this))
+				addressPool.idleCount.decrementAndGet();
+			evictedCount.increment();
+			TunnelUtils.closeQuietly(channel);
+			releaseIfIdle();
+		}
+
+		@Override
+		public void completed(Integer result, Void attachment) {
+			CompletionHandler<Integer, Void> lessee;
+			synchronized (this) {
+				readPending = false;
+				lessee = this.lessee;
+				if (lessee == null && result > 0)
+					heldByteCount += result;
+			}
+			if (lessee != null)
+				lessee.completed(result, attachment);
+			else if (result == -1)
+				evict();
+			else
+				hold();
+		}
+
+		// the backend spoke first. the bytes stay for the lessee, and a read behind them keeps watching for a close
+		// or reset. a full buffer can no longer watch, so the channel is evicted
+		private void hold() {
+			boolean read;
+			synchronized (this) {
+				read = !leased && !evicted && buffer.hasRemaining();
+				if (read)
+					readPending = true;
+			}
+			if (read) {
+				channel.read(buffer, null, this);
+				return;
+			}
+			evict();
+			// an eviction that raced the read left the buffer to be released here
+			releaseIfIdle();
+		}
+
+		@Override
+		public void failed(Throwable exc, Void attachment) {
+			CompletionHandler<Integer, Void> lessee;
+			synchronized (this) {
+				readPending = false;
+				lessee = this.lessee;
+			}
+			if (lessee != null)
+				lessee.failed(exc, attachment);
+			else
+				evict();
+		}
+
+		private void releaseIfIdle() {
+			ByteBuffer buffer;
+			synchronized (this) {
+				if (!evicted || readPending)
+					return;
+				buffer = this.buffer;
+				this.buffer = null;
+			}
+			if (buffer != null)
+				bufferPool.release(buffer);
+		}
+	}
+
+}
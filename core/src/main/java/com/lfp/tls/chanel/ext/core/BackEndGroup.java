@@ -0,0 +1,316 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * spreads tunnels over a fixed set of backends. a backend is ejected after consecutive connect failures and is
+ * offered one connect again once its cool down passed, a success reinstates it and a failure ejects it again.
+ * when every backend is ejected the group keeps selecting among all of them rather than failing every tunnel
+ */
+public class BackEndGroup {
+
+	public static enum Strategy {
+		LEAST_CONNECTIONS, POWER_OF_TWO_CHOICES, CONSISTENT_HASH;
+	}
+
+	private static final int VIRTUAL_NODES = 128;
+	private static final double EWMA_WEIGHT = 0.2;
+
+	private final AtomicInteger nextIndex = new AtomicInteger();
+	private final Strategy strategy;
+	private final BackEnd[] backEnds;
+	private final long[] ringHashes;
+	private final BackEnd[] ringBackEnds;
+	private volatile int ejectionThreshold = 5;
+	private volatile long ejectionCooldownNanos = Duration.ofSeconds(30).toNanos();
+
+	public BackEndGroup(Strategy strategy, List<? extends SocketAddress> addresses) {
+		this.strategy = Objects.requireNonNull(strategy);
+		if (addresses.isEmpty())
+			throw new IllegalArgumentException("backEnd addresses required");
+		this.backEnds = new BackEnd[addresses.size()];
+		for (int i = 0; i < backEnds.length; i++)
+			backEnds[i] = new BackEnd(Objects.requireNonNull(addresses.get(i)));
+		if (strategy == Strategy.CONSISTENT_HASH) {
+			this.ringHashes = new long[backEnds.length * VIRTUAL_NODES];
+			this.ringBackEnds = new BackEnd[ringHashes.length];
+			buildRing();
+		} else {
+			this.ringHashes = null;
+			this.ringBackEnds = null;
+		}
+	}
+
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+	public List<BackEnd> getBackEnds() {
+		return Collections.unmodifiableList(Arrays.asList(backEnds));
+	}
+
+	public int getEjectionThreshold() {
+		return ejectionThreshold;
+	}
+
+	// consecutive connect failures that eject a backend, zero or less never ejects
+	public void setEjectionThreshold(int ejectionThreshold) {
+		this.ejectionThreshold = ejectionThreshold;
+	}
+
+	public Duration getEjectionCooldown() {
+		return Duration.ofNanos(ejectionCooldownNanos);
+	}
+
+	public void setEjectionCooldown(Duration ejectionCooldown) {
+		this.ejectionCooldownNanos = Objects.requireNonNull(ejectionCooldown).toNanos();
+	}
+
+	public BackEnd select(SocketAddress clientAddress) {
+		return select(clientAddress, null);
+	}
+
+	// the returned backend counts the caller as a connection until it calls release, null when every backend
+	// is excluded
+	public BackEnd select(SocketAddress clientAddress, BackEnd excluded) {
+		long now = System.nanoTime();
+		for (int i = 0; i < backEnds.length; i++) {
+			var backEnd = select(clientAddress, excluded, now, true);
+			if (backEnd == null)
+				break;
+			// an ejected backend past its cool down takes a single probe, racing selections pick again
+			if (!backEnd.ejected || backEnd.claimProbe(now)) {
+				backEnd.acquire();
+				return backEnd;
+			}
+		}
+		var backEnd = select(clientAddress, excluded, now, false);
+		if (backEnd != null)
+			backEnd.acquire();
+		return backEnd;
+	}
+
+	private BackEnd select(SocketAddress clientAddress, BackEnd excluded, long now, boolean available) {
+		switch (strategy) {
+		case POWER_OF_TWO_CHOICES:
+			return selectPowerOfTwoChoices(excluded, now, available);
+		case CONSISTENT_HASH:
+			return selectConsistentHash(clientAddress, excluded, now, available);
+		default:
+			return selectLeastConnections(excluded, now, available);
+		}
+	}
+
+	private BackEnd selectLeastConnections(BackEnd excluded, long now, boolean available) {
+		BackEnd selected = null;
+		// a rotating start spreads ties instead of piling them onto the first backend
+		int start = nextIndex.getAndIncrement();
+		for (int i = 0; i < backEnds.length; i++) {
+			var backEnd = backEnds[Math.floorMod(start + i, backEnds.length)];
+			if (!isSelectable(backEnd, excluded, now, available))
+				continue;
+			if (selected == null || backEnd.activeCount.get() < selected.activeCount.get())
+				selected = backEnd;
+		}
+		return selected;
+	}
+
+	private BackEnd selectPowerOfTwoChoices(BackEnd excluded, long now, boolean available) {
+		var random = ThreadLocalRandom.current();
+		if (backEnds.length > 1) {
+			int first = random.nextInt(backEnds.length);
+			int second = random.nextInt(backEnds.length - 1);
+			if (second >= first)
+				second++;
+			var firstBackEnd = backEnds[first];
+			var secondBackEnd = backEnds[second];
+			boolean firstSelectable = isSelectable(firstBackEnd, excluded, now, available);
+			boolean secondSelectable = isSelectable(secondBackEnd, excluded, now, available);
+			if (firstSelectable && secondSelectable)
+				return firstBackEnd.getLoad() <= secondBackEnd.getLoad() ? firstBackEnd : secondBackEnd;
+			if (firstSelectable)
+				return firstBackEnd;
+			if (secondSelectable)
+				return secondBackEnd;
+		}
+		// both picks were unusable, scan so that a single usable backend is still found
+		BackEnd selected = null;
+		for (var backEnd : backEnds)
+			if (isSelectable(backEnd, excluded, now, available)
+					&& (selected == null || backEnd.getLoad() < selected.getLoad()))
+				selected = backEnd;
+		return selected;
+	}
+
+	private BackEnd selectConsistentHash(SocketAddress clientAddress, BackEnd excluded, long now,
+			boolean available) {
+		int index = Arrays.binarySearch(ringHashes, hash(clientAddress));
+		if (index < 0)
+			index = -index - 1;
+		// walking clockwise moves only the clients of an unusable backend
+		for (int i = 0; i < ringBackEnds.length; i++) {
+			var backEnd = ringBackEnds[(index + i) % ringBackEnds.length];
+			if (isSelectable(backEnd, excluded, now, available))
+				return backEnd;
+		}
+		return null;
+	}
+
+	private boolean isSelectable(BackEnd backEnd, BackEnd excluded, long now, boolean available) {
+		return backEnd != excluded && (!available || backEnd.isAvailable(now));
+	}
+
+	private void buildRing() {
+		var entries = new long[ringHashes.length][];
+		for (int i = 0; i < backEnds.length; i++) {
+			var key = backEnds[i].address.toString();
+			for (int v = 0; v < VIRTUAL_NODES; v++)
+				entries[i * VIRTUAL_NODES + v] = new long[] { mix(fnv(key + "#" + v)), i };
+		}
+		Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+		for (int i = 0; i < entries.length; i++) {
+			ringHashes[i] = entries[i][0];
+			ringBackEnds[i] = backEnds[(int) entries[i][1]];
+		}
+	}
+
+	// clients hash by ip so that reconnects from a new port keep their backend
+	private static long hash(SocketAddress clientAddress) {
+		if (clientAddress instanceof InetSocketAddress) {
+			var inetSocketAddress = (InetSocketAddress) clientAddress;
+			var inetAddress = inetSocketAddress.getAddress();
+			if (inetAddress != null)
+				return mix(inetAddress.hashCode());
+			return mix(fnv(inetSocketAddress.getHostString()));
+		}
+		return mix(clientAddress == null ? 0 : clientAddress.hashCode());
+	}
+
+	private static long fnv(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BackEndGroup [strategy=%s, backEnds=%s]", strategy, Arrays.toString(backEnds));
+	}
+
+	public class BackEnd {
+
+		private final AtomicInteger activeCount = new AtomicInteger();
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+		private final AtomicLong ewmaConnectNanos = new AtomicLong();
+		private final LongAdder failedCount = new LongAdder();
+		private final LongAdder ejectedCount = new LongAdder();
+		private final SocketAddress address;
+		private final AtomicLong ejectedUntil = new AtomicLong();
+		private volatile boolean ejected;
+
+		private BackEnd(SocketAddress address) {
+			this.address = address;
+		}
+
+		public SocketAddress getAddress() {
+			return address;
+		}
+
+		public int getActiveCount() {
+			return activeCount.get();
+		}
+
+		public Duration getEwmaConnectLatency() {
+			return Duration.ofNanos(ewmaConnectNanos.get());
+		}
+
+		public long getFailedCount() {
+			return failedCount.sum();
+		}
+
+		public long getEjectedCount() {
+			return ejectedCount.sum();
+		}
+
+		public boolean isEjected() {
+			return ejected;
+		}
+
+		public void release() {
+			activeCount.decrementAndGet();
+		}
+
+		public void connectSucceeded(long connectNanos) {
+			consecutiveFailures.set(0);
+			ejected = false;
+			while (true) {
+				long current = ewmaConnectNanos.get();
+				// the first sample seeds the average instead of being pulled towards zero
+				long updated = current == 0 ? connectNanos
+						: current + (long) (EWMA_WEIGHT * (connectNanos - current));
+				if (ewmaConnectNanos.compareAndSet(current, Math.max(1, updated)))
+					return;
+			}
+		}
+
+		public void connectFailed() {
+			failedCount.increment();
+			var threshold = ejectionThreshold;
+			if (threshold <= 0 || consecutiveFailures.incrementAndGet() < threshold)
+				return;
+			// a failed probe after the cool down ejects again straight away
+			ejectedUntil.set(System.nanoTime() + ejectionCooldownNanos);
+			if (!ejected)
+				ejectedCount.increment();
+			ejected = true;
+		}
+
+		private void acquire() {
+			activeCount.incrementAndGet();
+		}
+
+		private boolean isAvailable(long now) {
+			return !ejected || now - ejectedUntil.get() >= 0;
+		}
+
+		// holds the backend ejected for another cool down unless the probe succeeds first
+		private boolean claimProbe(long now) {
+			long until = ejectedUntil.get();
+			return now - until >= 0 && ejectedUntil.compareAndSet(until, now + ejectionCooldownNanos);
+		}
+
+		// connect latency weighted by outstanding connections, an unmeasured backend looks cheapest
+		private double getLoad() {
+			return (double) ewmaConnectNanos.get() * (activeCount.get() + 1);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("BackEnd [address=%s, activeCount=%s, ewmaConnectLatency=%s, ejected=%s]", address,
+					getActiveCount(), getEwmaConnectLatency(), isEjected());
+		}
+	}
+
+}
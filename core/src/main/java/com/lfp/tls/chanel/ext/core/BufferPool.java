@@ -0,0 +1,25 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.nio.ByteBuffer;
+
+public interface BufferPool {
+
+	ByteBuffer acquire(int capacity);
+
+	void release(ByteBuffer buffer);
+
+	public static BufferPool unpooled() {
+		return new BufferPool() {
+
+			@Override
+			public ByteBuffer acquire(int capacity) {
+				return ByteBuffer.allocate(capacity);
+			}
+
+			@Override
+			public void release(ByteBuffer buffer) {
+			}
+		};
+	}
+
+}
@@ -1,49 +1,146 @@
 package com.lfp.tls.chanel.ext.core;
 
-import java.util.LinkedHashSet;
-import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
 public class ByteCounter {
+	private static final Class<?> THIS_CLASS = new Object() {
+	}.getClass().getEnclosingClass();
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
+	private static final ScheduledExecutorService NOTIFICATION_EXECUTOR = Executors
+			.newSingleThreadScheduledExecutor(r -> {
+				var thread = new Thread(r, "byte-counter-notification");
+				thread.setDaemon(true);
+				return thread;
+			});
+	@SuppressWarnings("unchecked")
+	private static final Consumer<Event>[] EMPTY_LISTENERS = new Consumer[0];
 
-	private final ReadWriteLock listenerLock = new ReentrantReadWriteLock();
-	private final Set<Consumer<Event>> listeners = new LinkedHashSet<>();
-	private long totalByteCount;
+	// striped so that event loop threads counting on the same tunnel never write the same cache line
+	private final LongAdder totalByteCount = new LongAdder();
+	private final AtomicReference<Snapshot> lastSnapshot = new AtomicReference<>(new Snapshot(0, 0, System.nanoTime()));
+	// overflow state owned by ByteCounterDispatcher
+	final LongAdder coalescedByteCount = new LongAdder();
+	final AtomicBoolean coalescePending = new AtomicBoolean();
+	private volatile Consumer<Event>[] listeners = EMPTY_LISTENERS;
+	private volatile ScheduledFuture<?> notificationFuture;
+	private volatile ByteCounterDispatcher dispatcher;
+	private long notifiedByteCount;
 
 	public long getTotalByteCount() {
-		return totalByteCount;
+		return totalByteCount.sum();
 	}
 
-	public long count(long bytesAdded) {
+	public void count(long bytesAdded) {
 		if (bytesAdded <= 0)
-			return totalByteCount;
-		totalByteCount = totalByteCount + bytesAdded;
-		listeners.forEach(v -> v.accept(new Event(bytesAdded, totalByteCount)));
-		return totalByteCount;
+			return;
+		totalByteCount.add(bytesAdded);
+		if (notificationFuture != null)
+			return;
+		if (listeners.length == 0)
+			return;
+		var dispatcher = this.dispatcher;
+		if (dispatcher != null)
+			dispatcher.publish(this, bytesAdded);
+		else
+			notifyListeners(bytesAdded, totalByteCount.sum());
+	}
+
+	protected void notifyListeners(long bytesAdded, long bytesTotal) {
+		var listeners = this.listeners;
+		if (listeners.length == 0)
+			return;
+		var event = new Event(bytesAdded, bytesTotal);
+		// a throwing listener neither skips the others nor cancels the scheduled notifications
+		for (var listener : listeners) {
+			try {
+				listener.accept(event);
+			} catch (Throwable t) {
+				logger.error("byte counter listener error. listener:{}", listener, t);
+			}
+		}
+	}
+
+	public ByteCounterDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	public void setDispatcher(ByteCounterDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	public Snapshot getSnapshot() {
+		var nanoTime = System.nanoTime();
+		var total = totalByteCount.sum();
+		var previous = lastSnapshot.get();
+		var elapsedNanos = nanoTime - previous.getTimestampNanos();
+		double bytesPerSecond = elapsedNanos <= 0 ? previous.getBytesPerSecond()
+				: (total - previous.getTotalByteCount()) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+		var snapshot = new Snapshot(total, bytesPerSecond, nanoTime);
+		lastSnapshot.compareAndSet(previous, snapshot);
+		return snapshot;
+	}
+
+	public synchronized void setNotificationInterval(Duration notificationInterval) {
+		if (notificationFuture != null) {
+			notificationFuture.cancel(false);
+			notificationFuture = null;
+		}
+		if (notificationInterval == null)
+			return;
+		var intervalMillis = Math.max(notificationInterval.toMillis(), 1);
+		notifiedByteCount = totalByteCount.sum();
+		// an exception escaping a fixed rate task would silently cancel every later notification
+		notificationFuture = NOTIFICATION_EXECUTOR.scheduleAtFixedRate(() -> {
+			try {
+				notifyBatch();
+			} catch (Throwable t) {
+				logger.error("byte counter notification error", t);
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	protected void notifyBatch() {
+		var total = totalByteCount.sum();
+		var bytesAdded = total - notifiedByteCount;
+		if (bytesAdded <= 0)
+			return;
+		notifiedByteCount = total;
+		notifyListeners(bytesAdded, total);
 	}
 
-	public boolean addListener(Consumer<Event> listener) {
+	public synchronized boolean addListener(Consumer<Event> listener) {
 		if (listener == null)
 			return false;
-		listenerLock.writeLock().lock();
-		try {
-			return listeners.add(listener);
-		} finally {
-			listenerLock.writeLock().unlock();
-		}
+		for (var current : listeners)
+			if (current.equals(listener))
+				return false;
+		var listeners = Arrays.copyOf(this.listeners, this.listeners.length + 1);
+		listeners[listeners.length - 1] = listener;
+		this.listeners = listeners;
+		return true;
 	}
 
-	public boolean removeListener(Consumer<Event> listener) {
+	public synchronized boolean removeListener(Consumer<Event> listener) {
 		if (listener == null)
 			return false;
-		listenerLock.writeLock().lock();
-		try {
-			return listeners.remove(listener);
-		} finally {
-			listenerLock.writeLock().unlock();
+		for (int i = 0; i < listeners.length; i++) {
+			if (!listeners[i].equals(listener))
+				continue;
+			var listeners = Arrays.copyOf(this.listeners, this.listeners.length - 1);
+			System.arraycopy(this.listeners, i + 1, listeners, i, listeners.length - i);
+			this.listeners = listeners;
+			return true;
 		}
+		return false;
 	}
 
 	public static class Event {
@@ -67,4 +164,32 @@ public class ByteCounter {
 
 	}
 
+	public static class Snapshot {
+
+		private final long totalByteCount;
+		private final double bytesPerSecond;
+		private final long timestampNanos;
+
+		public Snapshot(long totalByteCount, double bytesPerSecond, long timestampNanos) {
+			super();
+			this.totalByteCount = totalByteCount;
+			this.bytesPerSecond = bytesPerSecond;
+			this.timestampNanos = timestampNanos;
+		}
+
+		public long getTotalByteCount() {
+			return totalByteCount;
+		}
+
+		// measured over the window since the previous snapshot was taken
+		public double getBytesPerSecond() {
+			return bytesPerSecond;
+		}
+
+		public long getTimestampNanos() {
+			return timestampNanos;
+		}
+
+	}
+
 }
@@ -0,0 +1,181 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public class ByteCounterDispatcher implements Closeable {
+	private static final Class<?> THIS_CLASS = new Object() {
+	}.getClass().getEnclosingClass();
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
+
+	public static enum OverflowPolicy {
+		DROP, COALESCE;
+	}
+
+	private final LongAdder dispatchedCount = new LongAdder();
+	private final LongAdder droppedCount = new LongAdder();
+	private final LongAdder coalescedCount = new LongAdder();
+	private final ConcurrentLinkedQueue<ByteCounter> coalescedCounters = new ConcurrentLinkedQueue<>();
+	// bounded multi producer, single consumer ring. a slot is writable when its sequence equals the
+	// producer position and readable when it equals the consumer position + 1
+	private final AtomicLong producerPosition = new AtomicLong();
+	private final AtomicLongArray sequences;
+	private final ByteCounter[] counters;
+	private final long[] bytesAdded;
+	private final int mask;
+	private final OverflowPolicy overflowPolicy;
+	private final Thread consumerThread;
+	private long consumerPosition;
+	private volatile boolean closed;
+	// set while the consumer is about to park, producers only unpark it then
+	private volatile boolean parked;
+
+	public ByteCounterDispatcher(int capacity, OverflowPolicy overflowPolicy) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("invalid capacity:" + capacity);
+		var ringSize = Integer.highestOneBit(capacity);
+		if (ringSize < capacity)
+			ringSize = ringSize << 1;
+		this.mask = ringSize - 1;
+		this.sequences = new AtomicLongArray(ringSize);
+		for (int i = 0; i < ringSize; i++)
+			this.sequences.set(i, i);
+		this.counters = new ByteCounter[ringSize];
+		this.bytesAdded = new long[ringSize];
+		this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+		this.consumerThread = new Thread(this::consume, "byte-counter-dispatcher");
+		this.consumerThread.setDaemon(true);
+		this.consumerThread.start();
+	}
+
+	public boolean publish(ByteCounter counter, long bytes) {
+		long position = producerPosition.get();
+		while (!closed) {
+			int index = (int) (position & mask);
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (producerPosition.compareAndSet(position, position + 1)) {
+					counters[index] = counter;
+					bytesAdded[index] = bytes;
+					// a full write, so that it is ordered before the parked read in signal
+					sequences.set(index, position + 1);
+					signal();
+					return true;
+				}
+			} else if (difference < 0) {
+				overflow(counter, bytes);
+				return false;
+			}
+			position = producerPosition.get();
+		}
+		droppedCount.increment();
+		return false;
+	}
+
+	protected void overflow(ByteCounter counter, long bytes) {
+		if (overflowPolicy == OverflowPolicy.DROP) {
+			droppedCount.increment();
+			return;
+		}
+		coalescedCount.increment();
+		counter.coalescedByteCount.add(bytes);
+		if (counter.coalescePending.compareAndSet(false, true)) {
+			coalescedCounters.offer(counter);
+			signal();
+		}
+	}
+
+	private void signal() {
+		if (parked)
+			LockSupport.unpark(consumerThread);
+	}
+
+	protected void consume() {
+		while (!closed) {
+			var polled = poll();
+			polled |= pollCoalesced();
+			if (polled)
+				continue;
+			// announced before the ring is checked again, a producer publishing after that check sees the flag
+			parked = true;
+			if (!isReadable() && coalescedCounters.isEmpty() && !closed)
+				LockSupport.park(this);
+			parked = false;
+		}
+	}
+
+	private boolean isReadable() {
+		return sequences.get((int) (consumerPosition & mask)) == consumerPosition + 1;
+	}
+
+	private boolean poll() {
+		boolean polled = false;
+		while (true) {
+			int index = (int) (consumerPosition & mask);
+			if (sequences.get(index) != consumerPosition + 1)
+				return polled;
+			var counter = counters[index];
+			var bytes = bytesAdded[index];
+			counters[index] = null;
+			sequences.lazySet(index, consumerPosition + mask + 1);
+			consumerPosition++;
+			dispatch(counter, bytes);
+			polled = true;
+		}
+	}
+
+	private boolean pollCoalesced() {
+		boolean polled = false;
+		ByteCounter counter;
+		while ((counter = coalescedCounters.poll()) != null) {
+			// cleared before draining so that a concurrent overflow re-queues the counter
+			counter.coalescePending.set(false);
+			var bytes = counter.coalescedByteCount.sumThenReset();
+			if (bytes > 0)
+				dispatch(counter, bytes);
+			polled = true;
+		}
+		return polled;
+	}
+
+	private void dispatch(ByteCounter counter, long bytes) {
+		try {
+			counter.notifyListeners(bytes, counter.getTotalByteCount());
+		} catch (Throwable t) {
+			logger.error("byte counter listener error", t);
+		}
+		dispatchedCount.increment();
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	public long getDispatchedCount() {
+		return dispatchedCount.sum();
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+
+	public long getCoalescedCount() {
+		return coalescedCount.sum();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(consumerThread);
+	}
+
+}
@@ -0,0 +1,266 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * resolves backend host names on its own threads so that a slow lookup never runs on an i/o completion thread.
+ * concurrent lookups of one name share a single resolution, failures are cached for the negative ttl and a name
+ * used during the last fifth of its ttl is refreshed in the background while the cached addresses keep serving
+ */
+public class CachingHostResolver implements Closeable {
+	private static final Class<?> THIS_CLASS = new Object() {
+	}.getClass().getEnclosingClass();
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
+	private static final AtomicInteger THREAD_INDEX = new AtomicInteger();
+	private static final int DEFAULT_THREADS = 4;
+	// lookups waiting for a thread, beyond it a miss fails fast instead of queueing behind a slow resolver
+	private static final int DEFAULT_QUEUE_SIZE = 1024;
+	private static final int EXPIRED_SWEEP_SIZE = 1024;
+	private static final CachingHostResolver DEFAULT_INSTANCE = new CachingHostResolver(HostResolver.system(),
+			Duration.ofSeconds(30), Duration.ofSeconds(5));
+
+	public static CachingHostResolver getDefault() {
+		return DEFAULT_INSTANCE;
+	}
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder refreshCount = new LongAdder();
+	private final LongAdder failedCount = new LongAdder();
+	private final LongAdder rejectedCount = new LongAdder();
+	private final HostResolver delegate;
+	private final ExecutorService executor;
+	private final long ttlNanos;
+	private final long negativeTtlNanos;
+	private final long refreshAheadNanos;
+
+	public CachingHostResolver(HostResolver delegate, Duration ttl, Duration negativeTtl) {
+		this(delegate, ttl, negativeTtl, DEFAULT_THREADS);
+	}
+
+	public CachingHostResolver(HostResolver delegate, Duration ttl, Duration negativeTtl, int threads) {
+		this(delegate, ttl, negativeTtl, threads, DEFAULT_QUEUE_SIZE);
+	}
+
+	public CachingHostResolver(HostResolver delegate, Duration ttl, Duration negativeTtl, int threads,
+			int queueSize) {
+		this.delegate = Objects.requireNonNull(delegate);
+		this.ttlNanos = Objects.requireNonNull(ttl).toNanos();
+		this.negativeTtlNanos = Objects.requireNonNull(negativeTtl).toNanos();
+		if (ttlNanos <= 0 || negativeTtlNanos < 0)
+			throw new IllegalArgumentException(String.format("invalid ttl. ttl:%s negativeTtl:%s", ttl, negativeTtl));
+		this.refreshAheadNanos = ttlNanos / 5;
+		var threadIndex = THREAD_INDEX.incrementAndGet();
+		var resolverThreadIndex = new AtomicInteger();
+		var threadPoolExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(queueSize), r -> {
+					var thread = new Thread(r, String.format("host-resolver-%s-%s", threadIndex,
+							resolverThreadIndex.incrementAndGet()));
+					thread.setDaemon(true);
+					return thread;
+				});
+		threadPoolExecutor.allowCoreThreadTimeOut(true);
+		this.executor = threadPoolExecutor;
+	}
+
+	// resolved addresses complete immediately, so do cached ones
+	public CompletableFuture<InetSocketAddress> resolve(InetSocketAddress address) {
+		if (!address.isUnresolved())
+			return CompletableFuture.completedFuture(address);
+		return lookup(address.getHostString())
+				.thenApply(inetAddresses -> new InetSocketAddress(inetAddresses[0], address.getPort()));
+	}
+
+	// the cached resolution without waiting or starting a lookup, null when none is cached. counts as a use, so a
+	// name close to expiry is refreshed in the background
+	public InetSocketAddress getIfPresent(InetSocketAddress address) {
+		if (!address.isUnresolved())
+			return address;
+		var host = address.getHostString();
+		var entry = entries.get(host);
+		long now = System.nanoTime();
+		if (entry == null || !entry.isFresh(now) || entry.future.isCompletedExceptionally())
+			return null;
+		hitCount.increment();
+		if (entry.isRefreshDue(now))
+			refresh(host, entry);
+		return new InetSocketAddress(entry.future.join()[0], address.getPort());
+	}
+
+	public CompletableFuture<InetAddress[]> lookup(String host) {
+		Objects.requireNonNull(host);
+		long now = System.nanoTime();
+		var entry = entries.get(host);
+		if (entry != null && (entry.isPending() || entry.isFresh(now))) {
+			hitCount.increment();
+			if (entry.isRefreshDue(now))
+				refresh(host, entry);
+			return entry.future;
+		}
+		var created = new Entry();
+		entry = entries.compute(host, (nil, current) -> {
+			if (current != null && (current.isPending() || current.isFresh(now)))
+				return current;
+			return created;
+		});
+		if (entry != created) {
+			hitCount.increment();
+			return entry.future;
+		}
+		missCount.increment();
+		if (entries.size() > EXPIRED_SWEEP_SIZE)
+			entries.values().removeIf(v -> !v.isPending() && !v.isFresh(now));
+		submit(host, created, false);
+		return created.future;
+	}
+
+	// runs a short task on the resolver threads, for work that must not hold up the shared timer thread. false when
+	// the queue is full or the resolver is closed
+	public boolean execute(Runnable task) {
+		try {
+			executor.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	public void invalidate(String host) {
+		entries.remove(host);
+	}
+
+	public void invalidateAll() {
+		entries.clear();
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	public long getRefreshCount() {
+		return refreshCount.sum();
+	}
+
+	public long getFailedCount() {
+		return failedCount.sum();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"CachingHostResolver [size=%s, hitCount=%s, missCount=%s, refreshCount=%s, failedCount=%s, rejectedCount=%s]",
+				size(), getHitCount(), getMissCount(), getRefreshCount(), getFailedCount(), getRejectedCount());
+	}
+
+	private void refresh(String host, Entry entry) {
+		if (!entry.refreshing.compareAndSet(false, true))
+			return;
+		refreshCount.increment();
+		submit(host, new Entry(), true);
+	}
+
+	private void submit(String host, Entry entry, boolean refresh) {
+		try {
+			executor.execute(() -> load(host, entry, refresh));
+		} catch (RejectedExecutionException e) {
+			rejectedCount.increment();
+			if (refresh)
+				return;
+			// a full queue says nothing about the host, so the failure is not cached
+			entries.remove(host, entry);
+			entry.future.completeExceptionally(e);
+		}
+	}
+
+	private void load(String host, Entry entry, boolean refresh) {
+		InetAddress[] inetAddresses = null;
+		Throwable error = null;
+		try {
+			inetAddresses = delegate.resolve(host);
+			if (inetAddresses == null || inetAddresses.length == 0)
+				throw new UnknownHostException(host);
+		} catch (Throwable t) {
+			error = t;
+		}
+		// a failed refresh keeps serving the cached addresses until they expire
+		if (refresh && error != null) {
+			logger.debug("host refresh error. host:{}", host, error);
+			return;
+		}
+		complete(host, entry, inetAddresses, error);
+		if (refresh)
+			entries.put(host, entry);
+	}
+
+	private void complete(String host, Entry entry, InetAddress[] inetAddresses, Throwable error) {
+		long now = System.nanoTime();
+		if (error != null) {
+			failedCount.increment();
+			entry.expiresAt = now + negativeTtlNanos;
+			entry.refreshAt = entry.expiresAt;
+			if (negativeTtlNanos == 0)
+				entries.remove(host, entry);
+			entry.future.completeExceptionally(error);
+			return;
+		}
+		entry.expiresAt = now + ttlNanos;
+		entry.refreshAt = entry.expiresAt - refreshAheadNanos;
+		entry.future.complete(inetAddresses);
+	}
+
+	private static class Entry {
+
+		private final CompletableFuture<InetAddress[]> future = new CompletableFuture<>();
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+		// written before the future completes
+		private volatile long expiresAt;
+		private volatile long refreshAt;
+
+		public boolean isPending() {
+			return !future.isDone();
+		}
+
+		public boolean isFresh(long now) {
+			return future.isDone() && now - expiresAt < 0;
+		}
+
+		// failed lookups are not refreshed ahead, they are retried once they expire
+		public boolean isRefreshDue(long now) {
+			return !refreshing.get() && future.isDone() && !future.isCompletedExceptionally() && now - refreshAt >= 0;
+		}
+	}
+
+}
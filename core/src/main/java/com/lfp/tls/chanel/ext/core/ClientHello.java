@@ -0,0 +1,143 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+public class ClientHello {
+
+	public static enum Status {
+		INCOMPLETE, COMPLETE, NOT_TLS;
+	}
+
+	private static final int RECORD_HEADER_LENGTH = 5;
+	private static final int CONTENT_TYPE_HANDSHAKE = 22;
+	private static final int HANDSHAKE_TYPE_CLIENT_HELLO = 1;
+	private static final int EXTENSION_SERVER_NAME = 0;
+	private static final int EXTENSION_ALPN = 16;
+	private static final int SERVER_NAME_TYPE_HOST_NAME = 0;
+	private static final ClientHello INCOMPLETE = new ClientHello(Status.INCOMPLETE, null, List.of());
+	private static final ClientHello NOT_TLS = new ClientHello(Status.NOT_TLS, null, List.of());
+
+	private final Status status;
+	private final String serverName;
+	private final List<String> alpnProtocols;
+
+	public ClientHello(Status status, String serverName, List<String> alpnProtocols) {
+		super();
+		this.status = status;
+		this.serverName = serverName;
+		this.alpnProtocols = alpnProtocols;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public Optional<String> getServerName() {
+		return Optional.ofNullable(serverName);
+	}
+
+	public List<String> getAlpnProtocols() {
+		return alpnProtocols;
+	}
+
+	// parses the bytes between position and limit without consuming them, call again with more bytes on INCOMPLETE
+	public static ClientHello parse(ByteBuffer data) {
+		var handshake = new ByteArrayOutputStream();
+		int offset = data.position();
+		while (true) {
+			if (data.limit() - offset < RECORD_HEADER_LENGTH)
+				return INCOMPLETE;
+			// a client hello may be fragmented across several handshake records
+			if ((data.get(offset) & 0xff) != CONTENT_TYPE_HANDSHAKE || (data.get(offset + 1) & 0xff) != 3)
+				return NOT_TLS;
+			int recordLength = data.getShort(offset + 3) & 0xffff;
+			if (data.limit() - offset - RECORD_HEADER_LENGTH < recordLength)
+				return INCOMPLETE;
+			for (int i = 0; i < recordLength; i++)
+				handshake.write(data.get(offset + RECORD_HEADER_LENGTH + i));
+			offset += RECORD_HEADER_LENGTH + recordLength;
+			var message = ByteBuffer.wrap(handshake.toByteArray());
+			if (message.remaining() < 4)
+				continue;
+			if ((message.get(0) & 0xff) != HANDSHAKE_TYPE_CLIENT_HELLO)
+				return NOT_TLS;
+			int messageLength = readUnsigned24(message, 1);
+			if (message.remaining() - 4 < messageLength)
+				continue;
+			message.position(4).limit(4 + messageLength);
+			try {
+				return parseClientHelloBody(message);
+			} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+				return NOT_TLS;
+			}
+		}
+	}
+
+	private static ClientHello parseClientHelloBody(ByteBuffer body) {
+		// client_version, random
+		skip(body, 2 + 32);
+		// session_id, cipher_suites, compression_methods
+		skip(body, body.get() & 0xff);
+		skip(body, body.getShort() & 0xffff);
+		skip(body, body.get() & 0xff);
+		String serverName = null;
+		List<String> alpnProtocols = List.of();
+		if (!body.hasRemaining())
+			return new ClientHello(Status.COMPLETE, serverName, alpnProtocols);
+		int extensionsEnd = (body.getShort() & 0xffff) + body.position();
+		while (body.position() + 4 <= extensionsEnd) {
+			int type = body.getShort() & 0xffff;
+			int length = body.getShort() & 0xffff;
+			var extension = slice(body, length);
+			if (type == EXTENSION_SERVER_NAME)
+				serverName = parseServerName(extension);
+			else if (type == EXTENSION_ALPN)
+				alpnProtocols = parseAlpnProtocols(extension);
+		}
+		return new ClientHello(Status.COMPLETE, serverName, alpnProtocols);
+	}
+
+	private static String parseServerName(ByteBuffer extension) {
+		var list = slice(extension, extension.getShort() & 0xffff);
+		while (list.remaining() >= 3) {
+			int nameType = list.get() & 0xff;
+			var name = slice(list, list.getShort() & 0xffff);
+			if (nameType == SERVER_NAME_TYPE_HOST_NAME)
+				return StandardCharsets.US_ASCII.decode(name).toString();
+		}
+		return null;
+	}
+
+	private static List<String> parseAlpnProtocols(ByteBuffer extension) {
+		var list = slice(extension, extension.getShort() & 0xffff);
+		var result = new ArrayList<String>();
+		while (list.hasRemaining())
+			result.add(StandardCharsets.US_ASCII.decode(slice(list, list.get() & 0xff)).toString());
+		return Collections.unmodifiableList(result);
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int length) {
+		if (buffer.remaining() < length)
+			throw new IndexOutOfBoundsException();
+		var result = buffer.slice();
+		result.limit(length);
+		skip(buffer, length);
+		return result;
+	}
+
+	private static void skip(ByteBuffer buffer, int length) {
+		buffer.position(buffer.position() + length);
+	}
+
+	private static int readUnsigned24(ByteBuffer buffer, int index) {
+		return ((buffer.get(index) & 0xff) << 16) | ((buffer.get(index + 1) & 0xff) << 8)
+				| (buffer.get(index + 2) & 0xff);
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+public class ClientHelloChannel implements AsynchronousByteChannel {
+
+	private final CompletableFuture<ClientHello> clientHelloFuture = new CompletableFuture<>();
+	private final AsynchronousSocketChannel delegate;
+
+	public ClientHelloChannel(AsynchronousSocketChannel delegate) {
+		this.delegate = Objects.requireNonNull(delegate);
+	}
+
+	public AsynchronousSocketChannel getDelegate() {
+		return delegate;
+	}
+
+	public CompletableFuture<ClientHello> getClientHelloFuture() {
+		return clientHelloFuture;
+	}
+
+	// feeds everything read so far, the buffer is in read mode and holds the bytes before its position
+	public boolean parseClientHello(ByteBuffer buffer) {
+		if (clientHelloFuture.isDone())
+			return true;
+		var clientHello = ClientHello.parse(buffer.duplicate().flip());
+		if (clientHello.getStatus() == ClientHello.Status.INCOMPLETE && buffer.hasRemaining())
+			return false;
+		// not tls or too large to buffer, route without a server name
+		clientHelloFuture.complete(clientHello);
+		return true;
+	}
+
+	@Override
+	public <A> void read(ByteBuffer dst, A attachment, CompletionHandler<Integer, ? super A> handler) {
+		delegate.read(dst, attachment, handler);
+	}
+
+	@Override
+	public Future<Integer> read(ByteBuffer dst) {
+		return delegate.read(dst);
+	}
+
+	@Override
+	public <A> void write(ByteBuffer src, A attachment, CompletionHandler<Integer, ? super A> handler) {
+		delegate.write(src, attachment, handler);
+	}
+
+	@Override
+	public Future<Integer> write(ByteBuffer src) {
+		return delegate.write(src);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return delegate.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	@Override
+	public String toString() {
+		return delegate.toString();
+	}
+
+}
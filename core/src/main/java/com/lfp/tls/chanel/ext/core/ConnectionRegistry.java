@@ -0,0 +1,291 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.io.Closeable;
+import java.net.SocketAddress;
+import java.nio.channels.Channel;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * live tunnels of one listener, from the frontEnd read until the tunnel closes. the i/o path only writes volatile
+ * fields of its own entry, queries walk the map without locking and copy each entry into a snapshot before
+ * comparing, so sorting never sees a counter move
+ */
+public class ConnectionRegistry {
+
+	public static enum State {
+		// waiting for the first frontEnd read, which for tls completes with the handshake
+		HANDSHAKING,
+		// the frontEnd is readable and the backEnd connect is pending
+		CONNECTING,
+		RELAYING,
+		// close was requested or the tunnel failed, the entry leaves once both sides are closed
+		CLOSING;
+	}
+
+	public static final Comparator<Snapshot> BY_BYTES_PER_SECOND = Comparator
+			.comparingDouble(Snapshot::getBytesPerSecond);
+	public static final Comparator<Snapshot> BY_BYTE_COUNT = Comparator.comparingLong(Snapshot::getByteCount);
+	public static final Comparator<Snapshot> BY_AGE = Comparator.comparing(Snapshot::getAge);
+
+	private final ConcurrentHashMap<Channel, Connection> connections = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Long, Connection> connectionsById = new ConcurrentHashMap<>();
+	private final AtomicLong nextId = new AtomicLong();
+
+	// keyed by the frontEnd channel, which keeps identity equality
+	public Connection register(Channel frontEnd, SocketAddress clientAddress) {
+		var connection = new Connection(nextId.incrementAndGet(), frontEnd, clientAddress);
+		connections.put(frontEnd, connection);
+		connectionsById.put(connection.id, connection);
+		return connection;
+	}
+
+	public Connection get(Channel frontEnd) {
+		return connections.get(frontEnd);
+	}
+
+	public int size() {
+		return connections.size();
+	}
+
+	public List<Snapshot> snapshot() {
+		var snapshots = new ArrayList<Snapshot>(connections.size());
+		long now = System.nanoTime();
+		for (var connection : connections.values())
+			snapshots.add(connection.snapshot(now));
+		return snapshots;
+	}
+
+	// the n largest by the comparator, largest first. a bounded heap keeps this linear in the connection count
+	public List<Snapshot> top(int n, Comparator<Snapshot> comparator) {
+		if (n <= 0)
+			return List.of();
+		var heap = new PriorityQueue<Snapshot>(Math.min(n, Math.max(1, connections.size())) + 1, comparator);
+		long now = System.nanoTime();
+		for (var connection : connections.values()) {
+			heap.add(connection.snapshot(now));
+			if (heap.size() > n)
+				heap.poll();
+		}
+		var result = new ArrayList<>(heap);
+		result.sort(comparator.reversed());
+		return Collections.unmodifiableList(result);
+	}
+
+	// average since the tunnel started, both directions
+	public List<Snapshot> topByBandwidth(int n) {
+		return top(n, BY_BYTES_PER_SECOND);
+	}
+
+	public List<Snapshot> topByAge(int n) {
+		return top(n, BY_AGE);
+	}
+
+	public boolean close(long id) {
+		var connection = connectionsById.get(id);
+		if (connection == null)
+			return false;
+		connection.close();
+		return true;
+	}
+
+	public int closeAll() {
+		int count = 0;
+		for (var connection : connections.values()) {
+			connection.close();
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ConnectionRegistry [size=%s]", size());
+	}
+
+	public class Connection implements Closeable {
+
+		private final long id;
+		private final Channel frontEnd;
+		private final SocketAddress clientAddress;
+		private final long startedAtMillis = System.currentTimeMillis();
+		private final long startedAtNanos = System.nanoTime();
+		private volatile String serverName;
+		private volatile SocketAddress backEndAddress;
+		private volatile Channel backEnd;
+		private volatile State state = State.HANDSHAKING;
+		// each count has a single writer, the relay reading that direction
+		private volatile long frontEndByteCount;
+		private volatile long backEndByteCount;
+		private volatile long lastActivityNanos = startedAtNanos;
+
+		private Connection(long id, Channel frontEnd, SocketAddress clientAddress) {
+			this.id = id;
+			this.frontEnd = Objects.requireNonNull(frontEnd);
+			this.clientAddress = clientAddress;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public Snapshot snapshot() {
+			return snapshot(System.nanoTime());
+		}
+
+		// closes both sides, the relays then unregister the connection
+		@Override
+		public void close() {
+			state = State.CLOSING;
+			TunnelUtils.closeQuietly(frontEnd, backEnd);
+		}
+
+		protected void setServerName(String serverName) {
+			this.serverName = serverName;
+		}
+
+		protected void setState(State state) {
+			if (this.state != State.CLOSING)
+				this.state = state;
+		}
+
+		protected void backEndConnected(Channel backEnd) {
+			this.backEnd = backEnd;
+			this.backEndAddress = TunnelUtils.getRemoteAddress(backEnd);
+			// a close that raced the connect could not reach the backEnd
+			if (state == State.CLOSING)
+				TunnelUtils.closeQuietly(backEnd);
+		}
+
+		protected void frontEndRead(long byteCount) {
+			frontEndByteCount += byteCount;
+			lastActivityNanos = System.nanoTime();
+		}
+
+		protected void backEndRead(long byteCount) {
+			backEndByteCount += byteCount;
+			lastActivityNanos = System.nanoTime();
+		}
+
+		protected void closed() {
+			state = State.CLOSING;
+			connections.remove(frontEnd, this);
+			connectionsById.remove(id, this);
+		}
+
+		private Snapshot snapshot(long now) {
+			return new Snapshot(id, clientAddress, serverName, backEndAddress, state,
+					Instant.ofEpochMilli(startedAtMillis), Duration.ofNanos(now - startedAtNanos),
+					Duration.ofNanos(Math.max(0, now - lastActivityNanos)), frontEndByteCount, backEndByteCount);
+		}
+
+		@Override
+		public String toString() {
+			return snapshot().toString();
+		}
+	}
+
+	public static class Snapshot {
+
+		private final long id;
+		private final SocketAddress clientAddress;
+		private final String serverName;
+		private final SocketAddress backEndAddress;
+		private final State state;
+		private final Instant startedAt;
+		private final Duration age;
+		private final Duration idleTime;
+		private final long frontEndByteCount;
+		private final long backEndByteCount;
+
+		public Snapshot(long id, SocketAddress clientAddress, String serverName, SocketAddress backEndAddress,
+				State state, Instant startedAt, Duration age, Duration idleTime, long frontEndByteCount,
+				long backEndByteCount) {
+			this.id = id;
+			this.clientAddress = clientAddress;
+			this.serverName = serverName;
+			this.backEndAddress = backEndAddress;
+			this.state = state;
+			this.startedAt = startedAt;
+			this.age = age;
+			this.idleTime = idleTime;
+			this.frontEndByteCount = frontEndByteCount;
+			this.backEndByteCount = backEndByteCount;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public SocketAddress getClientAddress() {
+			return clientAddress;
+		}
+
+		// null until known, and for tunnels without sni
+		public String getServerName() {
+			return serverName;
+		}
+
+		// null until the backEnd connected
+		public SocketAddress getBackEndAddress() {
+			return backEndAddress;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public Instant getStartedAt() {
+			return startedAt;
+		}
+
+		public Duration getAge() {
+			return age;
+		}
+
+		// since the last read on either side
+		public Duration getIdleTime() {
+			return idleTime;
+		}
+
+		// read from the client
+		public long getFrontEndByteCount() {
+			return frontEndByteCount;
+		}
+
+		// read from the backEnd
+		public long getBackEndByteCount() {
+			return backEndByteCount;
+		}
+
+		public long getByteCount() {
+			return frontEndByteCount + backEndByteCount;
+		}
+
+		public double getBytesPerSecond() {
+			long ageNanos = age.toNanos();
+			return ageNanos <= 0 ? 0 : getByteCount() * 1e9 / ageNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"Connection [id=%s, clientAddress=%s, serverName=%s, backEndAddress=%s, state=%s, startedAt=%s, age=%s, idleTime=%s, frontEndByteCount=%s, backEndByteCount=%s]",
+					id, clientAddress, serverName, backEndAddress, state, startedAt, age, idleTime,
+					frontEndByteCount, backEndByteCount);
+		}
+	}
+
+}
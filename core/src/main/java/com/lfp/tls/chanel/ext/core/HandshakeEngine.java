@@ -0,0 +1,283 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import tlschannel.NeedsReadException;
+import tlschannel.NeedsTaskException;
+import tlschannel.NeedsWriteException;
+
+/*
+ * completes tls handshakes before a channel joins its channel group. handshake i/o is driven by one selector
+ * thread and the sslengine delegated tasks run on a bounded pool, so key exchange and signatures never occupy
+ * the threads relaying established connections
+ */
+public class HandshakeEngine implements Closeable {
+	private static final Class<?> THIS_CLASS = new Object() {
+	}.getClass().getEnclosingClass();
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
+	private static final AtomicInteger THREAD_INDEX = new AtomicInteger();
+
+	private final LongAdder completedCount = new LongAdder();
+	private final LongAdder failedCount = new LongAdder();
+	private final LongAdder taskCount = new LongAdder();
+	private final LongAdder rejectedTaskCount = new LongAdder();
+	private final LongAdder taskWaitNanos = new LongAdder();
+	private final LongAdder taskRunNanos = new LongAdder();
+	private final AtomicLong maxTaskWaitNanos = new AtomicLong();
+	private final AtomicLong maxTaskRunNanos = new AtomicLong();
+	private final AtomicInteger inProgressCount = new AtomicInteger();
+	private final ConcurrentLinkedQueue<Handshake> pendingInterests = new ConcurrentLinkedQueue<>();
+	private final ThreadPoolExecutor taskExecutor;
+	private final Selector selector;
+	private final Thread selectorThread;
+	private volatile boolean closed;
+
+	public HandshakeEngine() throws IOException {
+		this(Runtime.getRuntime().availableProcessors(), 1024);
+	}
+
+	// tasks beyond the queue capacity fail their handshake instead of waiting
+	public HandshakeEngine(int taskThreads, int taskQueueCapacity) throws IOException {
+		if (taskThreads <= 0)
+			throw new IllegalArgumentException("invalid taskThreads:" + taskThreads);
+		var threadIndex = THREAD_INDEX.incrementAndGet();
+		var taskThreadIndex = new AtomicInteger();
+		this.taskExecutor = new ThreadPoolExecutor(taskThreads, taskThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(Math.max(1, taskQueueCapacity)), r -> {
+					var thread = new Thread(r, String.format("handshake-task-%s-%s", threadIndex,
+							taskThreadIndex.incrementAndGet()));
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.selector = Selector.open();
+		this.selectorThread = new Thread(this::selectLoop, "handshake-selector-" + threadIndex);
+		this.selectorThread.setDaemon(true);
+		this.selectorThread.start();
+	}
+
+	// the channel must be non blocking and not yet registered with a channel group
+	public void handshake(ServerTlsChannelExt tlsChannel, CompletionHandler<Void, Void> handler) {
+		var handshake = new Handshake(tlsChannel, handler);
+		inProgressCount.incrementAndGet();
+		// a handshake timeout closes the channel, which silently cancels any selection key
+		tlsChannel.getSslSessionFuture().whenComplete((nil, error) -> {
+			if (error != null)
+				handshake.fail(error);
+		});
+		handshake.step();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		taskExecutor.shutdownNow();
+		TunnelUtils.closeQuietly(selector);
+	}
+
+	protected void selectLoop() {
+		try {
+			while (!closed) {
+				selector.select();
+				Handshake handshake;
+				while ((handshake = pendingInterests.poll()) != null)
+					handshake.register();
+				for (var key : selector.selectedKeys()) {
+					if (!key.isValid())
+						continue;
+					key.interestOps(0);
+					((Handshake) key.attachment()).step();
+				}
+				selector.selectedKeys().clear();
+			}
+		} catch (ClosedSelectorException e) {
+			// closed
+		} catch (Throwable t) {
+			if (!closed)
+				logger.error("handshake selector unexpectedly quit", t);
+		}
+	}
+
+	public int getInProgressCount() {
+		return inProgressCount.get();
+	}
+
+	public long getCompletedCount() {
+		return completedCount.sum();
+	}
+
+	public long getFailedCount() {
+		return failedCount.sum();
+	}
+
+	public int getTaskQueueDepth() {
+		return taskExecutor.getQueue().size();
+	}
+
+	public int getActiveTaskCount() {
+		return taskExecutor.getActiveCount();
+	}
+
+	public long getTaskCount() {
+		return taskCount.sum();
+	}
+
+	public long getRejectedTaskCount() {
+		return rejectedTaskCount.sum();
+	}
+
+	public Duration getMeanTaskWait() {
+		return mean(taskWaitNanos);
+	}
+
+	public Duration getMaxTaskWait() {
+		return Duration.ofNanos(maxTaskWaitNanos.get());
+	}
+
+	public Duration getMeanTaskRunTime() {
+		return mean(taskRunNanos);
+	}
+
+	public Duration getMaxTaskRunTime() {
+		return Duration.ofNanos(maxTaskRunNanos.get());
+	}
+
+	private Duration mean(LongAdder totalNanos) {
+		var count = taskCount.sum();
+		return Duration.ofNanos(count == 0 ? 0 : totalNanos.sum() / count);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"HandshakeEngine [inProgressCount=%s, completedCount=%s, failedCount=%s, taskQueueDepth=%s, taskCount=%s, rejectedTaskCount=%s, meanTaskWait=%s, meanTaskRunTime=%s]",
+				getInProgressCount(), getCompletedCount(), getFailedCount(), getTaskQueueDepth(), getTaskCount(),
+				getRejectedTaskCount(), getMeanTaskWait(), getMeanTaskRunTime());
+	}
+
+	private class Handshake {
+
+		private final ServerTlsChannelExt tlsChannel;
+		private final SocketChannel socketChannel;
+		private final CompletionHandler<Void, Void> handler;
+		private SelectionKey selectionKey;
+		private int interestOps;
+		private boolean done;
+
+		public Handshake(ServerTlsChannelExt tlsChannel, CompletionHandler<Void, Void> handler) {
+			this.tlsChannel = Objects.requireNonNull(tlsChannel);
+			this.socketChannel = (SocketChannel) tlsChannel.getUnderlying();
+			this.handler = Objects.requireNonNull(handler);
+		}
+
+		// runs on the caller, the selector thread or a task thread, never on two at once
+		public void step() {
+			synchronized (this) {
+				if (done)
+					return;
+			}
+			try {
+				tlsChannel.handshake();
+			} catch (NeedsReadException e) {
+				awaitReady(SelectionKey.OP_READ);
+				return;
+			} catch (NeedsWriteException e) {
+				awaitReady(SelectionKey.OP_WRITE);
+				return;
+			} catch (NeedsTaskException e) {
+				runTask(e.getTask());
+				return;
+			} catch (Throwable t) {
+				fail(t);
+				return;
+			}
+			complete();
+		}
+
+		private void awaitReady(int interestOps) {
+			this.interestOps = interestOps;
+			pendingInterests.add(this);
+			selector.wakeup();
+		}
+
+		private void register() {
+			try {
+				if (selectionKey == null)
+					selectionKey = socketChannel.register(selector, interestOps, this);
+				else
+					selectionKey.interestOps(interestOps);
+			} catch (Throwable t) {
+				fail(t);
+			}
+		}
+
+		private void runTask(Runnable task) {
+			long submittedAt = System.nanoTime();
+			try {
+				taskExecutor.execute(() -> {
+					long startedAt = System.nanoTime();
+					try {
+						task.run();
+					} finally {
+						recordTask(startedAt - submittedAt, System.nanoTime() - startedAt);
+					}
+					step();
+				});
+			} catch (RejectedExecutionException e) {
+				rejectedTaskCount.increment();
+				fail(e);
+			}
+		}
+
+		private void complete() {
+			if (!finish())
+				return;
+			completedCount.increment();
+			handler.completed(null, null);
+		}
+
+		public void fail(Throwable error) {
+			if (!finish())
+				return;
+			failedCount.increment();
+			handler.failed(error, null);
+		}
+
+		private boolean finish() {
+			synchronized (this) {
+				if (done)
+					return false;
+				done = true;
+			}
+			inProgressCount.decrementAndGet();
+			// the channel group registers the channel with its own selector next
+			if (selectionKey != null)
+				selectionKey.cancel();
+			return true;
+		}
+	}
+
+	private void recordTask(long waitNanos, long runNanos) {
+		taskCount.increment();
+		taskWaitNanos.add(waitNanos);
+		taskRunNanos.add(runNanos);
+		maxTaskWaitNanos.accumulateAndGet(waitNanos, Math::max);
+		maxTaskRunNanos.accumulateAndGet(runNanos, Math::max);
+	}
+
+}
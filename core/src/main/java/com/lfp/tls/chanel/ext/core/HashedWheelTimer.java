@@ -0,0 +1,186 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class HashedWheelTimer implements Closeable {
+	private static final Class<?> THIS_CLASS = new Object() {
+	}.getClass().getEnclosingClass();
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
+	private static final Duration DEFAULT_TICK_DURATION = Duration.ofMillis(50);
+	private static final int DEFAULT_WHEEL_SIZE = 1024;
+	private static final AtomicInteger THREAD_INDEX = new AtomicInteger();
+	private static final HashedWheelTimer DEFAULT_INSTANCE = new HashedWheelTimer();
+
+	public static HashedWheelTimer getDefault() {
+		return DEFAULT_INSTANCE;
+	}
+
+	// bucket heads, each bucket is an intrusive doubly linked list of timeouts
+	private final Timeout[] wheel;
+	private final int mask;
+	private final long tickNanos;
+	private final long startNanos;
+	private final Thread workerThread;
+	// guarded by wheel
+	private long tick;
+	private int pendingCount;
+	private volatile boolean closed;
+
+	public HashedWheelTimer() {
+		this(DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+	}
+
+	public HashedWheelTimer(Duration tickDuration, int wheelSize) {
+		this.tickNanos = Objects.requireNonNull(tickDuration).toNanos();
+		if (tickNanos <= 0)
+			throw new IllegalArgumentException("invalid tickDuration:" + tickDuration);
+		if (wheelSize <= 0)
+			throw new IllegalArgumentException("invalid wheelSize:" + wheelSize);
+		var size = Integer.highestOneBit(wheelSize);
+		if (size < wheelSize)
+			size = size << 1;
+		this.wheel = new Timeout[size];
+		this.mask = size - 1;
+		this.startNanos = System.nanoTime();
+		this.workerThread = new Thread(this::work, "hashed-wheel-timer-" + THREAD_INDEX.incrementAndGet());
+		this.workerThread.setDaemon(true);
+		this.workerThread.start();
+	}
+
+	// the task runs on the timer thread and should hand off anything slow
+	public Timeout newTimeout(Runnable task) {
+		return new Timeout(task);
+	}
+
+	public Duration getTickDuration() {
+		return Duration.ofNanos(tickNanos);
+	}
+
+	public int getPendingCount() {
+		synchronized (wheel) {
+			return pendingCount;
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		workerThread.interrupt();
+	}
+
+	protected void work() {
+		var expired = new ArrayList<Timeout>();
+		long nextTick = 0;
+		while (!closed) {
+			long deadline = startNanos + (nextTick + 1) * tickNanos;
+			long sleepNanos;
+			while (!closed && (sleepNanos = deadline - System.nanoTime()) > 0)
+				LockSupport.parkNanos(this, sleepNanos);
+			if (closed)
+				return;
+			synchronized (wheel) {
+				var timeout = wheel[(int) (tick & mask)];
+				while (timeout != null) {
+					var next = timeout.next;
+					if (timeout.remainingRounds <= 0) {
+						unlink(timeout);
+						expired.add(timeout);
+					} else
+						timeout.remainingRounds--;
+					timeout = next;
+				}
+				tick++;
+				nextTick = tick;
+			}
+			for (int i = 0; i < expired.size(); i++) {
+				try {
+					expired.get(i).task.run();
+				} catch (Throwable t) {
+					logger.error("timer task error", t);
+				}
+			}
+			expired.clear();
+		}
+	}
+
+	private void link(Timeout timeout, long targetTick) {
+		int index = (int) (targetTick & mask);
+		timeout.bucket = index;
+		timeout.remainingRounds = (targetTick - tick) / wheel.length;
+		timeout.prev = null;
+		timeout.next = wheel[index];
+		if (timeout.next != null)
+			timeout.next.prev = timeout;
+		wheel[index] = timeout;
+		pendingCount++;
+	}
+
+	private void unlink(Timeout timeout) {
+		if (timeout.prev != null)
+			timeout.prev.next = timeout.next;
+		else
+			wheel[timeout.bucket] = timeout.next;
+		if (timeout.next != null)
+			timeout.next.prev = timeout.prev;
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+		pendingCount--;
+	}
+
+	// reusable wheel entry, scheduling and cancelling never allocate
+	public class Timeout {
+
+		private final Runnable task;
+		private Timeout prev;
+		private Timeout next;
+		private int bucket = -1;
+		private long remainingRounds;
+
+		protected Timeout(Runnable task) {
+			this.task = Objects.requireNonNull(task);
+		}
+
+		public void schedule(Duration delay) {
+			schedule(delay.toNanos(), TimeUnit.NANOSECONDS);
+		}
+
+		// replaces any pending expiry, a task already handed to the timer thread still runs
+		public void schedule(long delay, TimeUnit unit) {
+			long deadline = System.nanoTime() + unit.toNanos(delay) - startNanos;
+			// the bucket for tick n is expired once (n + 1) ticks have elapsed
+			long targetTick = (deadline + tickNanos - 1) / tickNanos - 1;
+			synchronized (wheel) {
+				if (bucket != -1)
+					unlink(this);
+				link(this, Math.max(targetTick, tick));
+			}
+		}
+
+		public boolean cancel() {
+			synchronized (wheel) {
+				if (bucket == -1)
+					return false;
+				unlink(this);
+				return true;
+			}
+		}
+
+		public boolean isScheduled() {
+			synchronized (wheel) {
+				return bucket != -1;
+			}
+		}
+
+		public HashedWheelTimer getTimer() {
+			return HashedWheelTimer.this;
+		}
+	}
+
+}
@@ -0,0 +1,15 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+public interface HostResolver {
+
+	// may block, CachingHostResolver only calls it from its own threads
+	InetAddress[] resolve(String host) throws UnknownHostException;
+
+	public static HostResolver system() {
+		return InetAddress::getAllByName;
+	}
+
+}
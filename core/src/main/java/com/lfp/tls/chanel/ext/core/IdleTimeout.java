@@ -0,0 +1,138 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+// activity only writes a timestamp, the wheel entry re-arms itself from the timer thread. the two relays of a tunnel
+// link their timeouts, so that reads time out only once both directions waited, a one-way transfer stays open
+public class IdleTimeout {
+
+	public static final IdleTimeout DISABLED = new IdleTimeout();
+
+	private final long readTimeoutNanos;
+	private final long writeTimeoutNanos;
+	private final Runnable onIdle;
+	private final HashedWheelTimer.Timeout timeout;
+	// the timeout of the relay in the other direction, null until linked
+	private volatile IdleTimeout peer;
+	// zero when no operation is pending
+	private volatile long readPendingSince;
+	private volatile long writePendingSince;
+	private volatile boolean cancelled;
+
+	private IdleTimeout() {
+		this.readTimeoutNanos = 0;
+		this.writeTimeoutNanos = 0;
+		this.onIdle = null;
+		this.timeout = null;
+	}
+
+	public IdleTimeout(HashedWheelTimer timer, Duration readTimeout, Duration writeTimeout, Runnable onIdle) {
+		this.readTimeoutNanos = toNanos(readTimeout);
+		this.writeTimeoutNanos = toNanos(writeTimeout);
+		this.onIdle = Objects.requireNonNull(onIdle);
+		this.timeout = timer.newTimeout(this::check);
+	}
+
+	public boolean isEnabled() {
+		return timeout != null && (readTimeoutNanos > 0 || writeTimeoutNanos > 0);
+	}
+
+	public void link(IdleTimeout peer) {
+		if (!isEnabled() || peer == null || !peer.isEnabled())
+			return;
+		this.peer = peer;
+		peer.peer = this;
+	}
+
+	public void start() {
+		if (isEnabled() && !cancelled)
+			timeout.schedule(nextCheckNanos(System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	public void cancel() {
+		if (!isEnabled())
+			return;
+		cancelled = true;
+		timeout.cancel();
+	}
+
+	public void readStarted() {
+		if (readTimeoutNanos > 0)
+			readPendingSince = now();
+	}
+
+	public void readCompleted() {
+		if (readTimeoutNanos > 0)
+			readPendingSince = 0;
+	}
+
+	// also called on partial writes, progress resets the write timeout
+	public void writeStarted() {
+		if (writeTimeoutNanos > 0)
+			writePendingSince = now();
+	}
+
+	public void writeCompleted() {
+		if (writeTimeoutNanos > 0)
+			writePendingSince = 0;
+	}
+
+	protected void check() {
+		if (cancelled)
+			return;
+		long now = System.nanoTime();
+		if (isExpired(getReadPendingSince(), readTimeoutNanos, now)
+				|| isExpired(writePendingSince, writeTimeoutNanos, now)) {
+			cancelled = true;
+			onIdle.run();
+			return;
+		}
+		timeout.schedule(nextCheckNanos(now), TimeUnit.NANOSECONDS);
+		// a cancel racing the re-arm must not leave the entry on the wheel
+		if (cancelled)
+			timeout.cancel();
+	}
+
+	private long nextCheckNanos(long now) {
+		return Math.min(remainingNanos(getReadPendingSince(), readTimeoutNanos, now),
+				remainingNanos(writePendingSince, writeTimeoutNanos, now));
+	}
+
+	// the later of both directions, zero while either is not waiting for a read
+	private long getReadPendingSince() {
+		var readPendingSince = this.readPendingSince;
+		var peer = this.peer;
+		if (peer == null || readPendingSince == 0)
+			return readPendingSince;
+		var peerReadPendingSince = peer.readPendingSince;
+		if (peerReadPendingSince == 0)
+			return 0;
+		return peerReadPendingSince - readPendingSince > 0 ? peerReadPendingSince : readPendingSince;
+	}
+
+	private static boolean isExpired(long pendingSince, long timeoutNanos, long now) {
+		return timeoutNanos > 0 && pendingSince != 0 && now - pendingSince >= timeoutNanos;
+	}
+
+	private static long remainingNanos(long pendingSince, long timeoutNanos, long now) {
+		if (timeoutNanos <= 0)
+			return Long.MAX_VALUE;
+		if (pendingSince == 0)
+			return timeoutNanos;
+		return Math.max(0, pendingSince + timeoutNanos - now);
+	}
+
+	private static long now() {
+		long now = System.nanoTime();
+		return now == 0 ? 1 : now;
+	}
+
+	private static long toNanos(Duration duration) {
+		if (duration == null || duration.isNegative() || duration.isZero())
+			return 0;
+		return duration.toNanos();
+	}
+
+}
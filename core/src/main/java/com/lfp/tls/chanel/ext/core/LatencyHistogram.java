@@ -0,0 +1,171 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * log linear histogram of nanosecond latencies. every power of two is split into 32 sub buckets, so a recorded
+ * value is reported within about 3% and recording is a single atomic increment regardless of the range
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = 64 - SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT * SUB_BUCKET_COUNT);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final AtomicBoolean decaying = new AtomicBoolean();
+
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(index(nanos));
+		totalCount.incrementAndGet();
+		totalNanos.add(nanos);
+		maxNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	public void record(Duration duration) {
+		record(duration.toNanos());
+	}
+
+	@Override
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	@Override
+	public double getMeanMillis() {
+		return toMillis(getMean());
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return toMillis(getMax());
+	}
+
+	@Override
+	public double getP50Millis() {
+		return toMillis(getValueAtPercentile(50));
+	}
+
+	@Override
+	public double getP90Millis() {
+		return toMillis(getValueAtPercentile(90));
+	}
+
+	@Override
+	public double getP99Millis() {
+		return toMillis(getValueAtPercentile(99));
+	}
+
+	@Override
+	public double getP999Millis() {
+		return toMillis(getValueAtPercentile(99.9));
+	}
+
+	public Duration getMax() {
+		return Duration.ofNanos(maxNanos.get());
+	}
+
+	public Duration getMean() {
+		var count = getCount();
+		return Duration.ofNanos(count == 0 ? 0 : totalNanos.sum() / count);
+	}
+
+	// the upper bound of the bucket holding the percentile, zero when nothing was recorded
+	public Duration getValueAtPercentile(double percentile) {
+		var count = getCount();
+		if (count == 0)
+			return Duration.ZERO;
+		long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Duration.ofNanos(Math.min(maxNanos.get(), highestValue(i)));
+		}
+		return getMax();
+	}
+
+	// halves every count so that older samples weigh less than the ones that follow, the max is kept
+	public void decay() {
+		decay(0);
+	}
+
+	// decays once the count reached minCount. one thread at a time, so recorders that all see the count past the
+	// threshold halve it once, the others get false
+	public boolean decay(long minCount) {
+		if (!decaying.compareAndSet(false, true))
+			return false;
+		try {
+			long before = totalCount.get();
+			if (before == 0 || before < minCount)
+				return false;
+			long removed = 0;
+			for (int i = 0; i < counts.length(); i++) {
+				long count = counts.get(i);
+				if (count == 0)
+					continue;
+				long halved = count >> 1;
+				// concurrent increments are kept, only the halved amount is taken off
+				counts.addAndGet(i, halved - count);
+				removed += count - halved;
+			}
+			totalCount.addAndGet(-removed);
+			// likewise only the share of the removed samples comes off the total
+			totalNanos.add(-(long) ((double) totalNanos.sum() * removed / before));
+			return true;
+		} finally {
+			decaying.set(false);
+		}
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+		totalCount.set(0);
+		totalNanos.reset();
+		maxNanos.set(0);
+	}
+
+	private static double toMillis(Duration duration) {
+		return duration.toNanos() / 1e6;
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKET_COUNT)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+		return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	private static long lowestValue(int index) {
+		int bucket = index / SUB_BUCKET_COUNT;
+		int subBucket = index % SUB_BUCKET_COUNT;
+		if (bucket == 0)
+			return subBucket;
+		return (long) (SUB_BUCKET_COUNT + subBucket) << (bucket - 1);
+	}
+
+	private static long highestValue(int index) {
+		if (index + 1 >= BUCKET_COUNT * SUB_BUCKET_COUNT)
+			return Long.MAX_VALUE;
+		return lowestValue(index + 1) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("LatencyHistogram [count=%s, mean=%s, p50=%s, p99=%s, max=%s]", getCount(), getMean(),
+				getValueAtPercentile(50), getValueAtPercentile(99), getMax());
+	}
+
+}
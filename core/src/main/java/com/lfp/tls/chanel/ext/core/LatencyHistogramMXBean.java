@@ -0,0 +1,22 @@
+package com.lfp.tls.chanel.ext.core;
+
+// the jmx view of a latency histogram, values in milliseconds
+public interface LatencyHistogramMXBean {
+
+	long getCount();
+
+	double getMeanMillis();
+
+	double getMaxMillis();
+
+	double getP50Millis();
+
+	double getP90Millis();
+
+	double getP99Millis();
+
+	double getP999Millis();
+
+	void reset();
+
+}
@@ -0,0 +1,302 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.CompletionHandler;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.LongConsumer;
+
+public class PipelinedRelay implements TunnelRelay {
+
+	private final CompletionHandler<Integer, Void> readHandler = new CompletionHandler<Integer, Void>() {
+
+		@Override
+		public void completed(Integer result, Void attachment) {
+			idleTimeout.readCompleted();
+			try {
+				readCompleted(result);
+			} catch (Throwable t) {
+				readFailed(t);
+			}
+		}
+
+		@Override
+		public void failed(Throwable exc, Void attachment) {
+			readFailed(exc);
+		}
+	};
+	private final CompletionHandler<Integer, Void> writeHandler = new CompletionHandler<Integer, Void>() {
+
+		@Override
+		public void completed(Integer result, Void attachment) {
+			try {
+				writeCompleted();
+			} catch (Throwable t) {
+				writeFailed(t);
+			}
+		}
+
+		@Override
+		public void failed(Throwable exc, Void attachment) {
+			writeFailed(exc);
+		}
+	};
+	private final String name;
+	private final String readErrorMessage;
+	private final String writeErrorMessage;
+	private final AsynchronousByteChannel source;
+	private final AsynchronousByteChannel target;
+	private final ByteCounter counter;
+	private final AdaptiveBufferSizer bufferSizer;
+	private final IdleTimeout idleTimeout;
+	// at most two buffers exist: one being written and one being read or queued behind the write
+	private ByteBuffer readBuffer;
+	private ByteBuffer writeBuffer;
+	private ByteBuffer queuedBuffer;
+	private ByteBuffer spareBuffer;
+	private int bufferCount;
+	private boolean readPending;
+	private boolean writePending;
+	private boolean endOfStream;
+	private boolean terminated;
+	private Runnable terminationListener;
+	private LongConsumer readListener;
+	private long stallThresholdNanos;
+	// one write is in flight at a time, only read while a recording has the relay stall event enabled
+	private long writeStartedAt;
+	private boolean writeTimed;
+
+	public PipelinedRelay(String name, AsynchronousByteChannel source, AsynchronousByteChannel target,
+			ByteCounter counter, BufferPool bufferPool, ByteBuffer buffer) {
+		this(name, source, target, counter, AdaptiveBufferSizer.fixed(bufferPool, buffer.capacity()), buffer,
+				IdleTimeout.DISABLED);
+	}
+
+	public PipelinedRelay(String name, AsynchronousByteChannel source, AsynchronousByteChannel target,
+			ByteCounter counter, AdaptiveBufferSizer bufferSizer, ByteBuffer buffer, IdleTimeout idleTimeout) {
+		this.name = name;
+		this.readErrorMessage = name + " read error";
+		this.writeErrorMessage = name + " write error";
+		this.source = Objects.requireNonNull(source);
+		this.target = Objects.requireNonNull(target);
+		this.counter = Objects.requireNonNull(counter);
+		this.bufferSizer = Objects.requireNonNull(bufferSizer);
+		this.readBuffer = Objects.requireNonNull(buffer);
+		this.bufferCount = 1;
+		this.idleTimeout = Objects.requireNonNull(idleTimeout);
+	}
+
+	@Override
+	public CompletionHandler<Integer, Void> adoptPendingRead() {
+		synchronized (this) {
+			readPending = true;
+		}
+		idleTimeout.readStarted();
+		idleTimeout.start();
+		return readHandler;
+	}
+
+	@Override
+	public synchronized void setTerminationListener(Runnable terminationListener) {
+		this.terminationListener = terminationListener;
+	}
+
+	// set before the relay starts, reads see it through the start
+	@Override
+	public void setReadListener(LongConsumer readListener) {
+		this.readListener = readListener;
+	}
+
+	// set before the relay starts, like the read listener
+	@Override
+	public void setStallThreshold(Duration stallThreshold) {
+		this.stallThresholdNanos = stallThreshold == null ? 0 : stallThreshold.toNanos();
+	}
+
+	@Override
+	public void start() {
+		ByteBuffer toRead;
+		synchronized (this) {
+			readPending = true;
+			toRead = readBuffer;
+		}
+		idleTimeout.start();
+		if (toRead.position() > 0)
+			readCompleted(0);
+		else
+			read(toRead);
+	}
+
+	protected void readCompleted(int result) {
+		if (result == -1) {
+			boolean drained;
+			synchronized (this) {
+				readPending = false;
+				endOfStream = true;
+				drained = !writePending && queuedBuffer == null;
+			}
+			if (drained)
+				terminate(null, null);
+			return;
+		}
+		counter.count(result);
+		if (readListener != null)
+			readListener.accept(result);
+		ByteBuffer toWrite = null;
+		ByteBuffer toRead = null;
+		synchronized (this) {
+			readPending = false;
+			if (terminated) {
+				releaseIdleBuffers();
+				return;
+			}
+			var filled = readBuffer;
+			readBuffer = null;
+			bufferSizer.record(filled.position(), filled.capacity());
+			filled.flip();
+			if (writePending)
+				queuedBuffer = filled;
+			else {
+				writeBuffer = filled;
+				writePending = true;
+				toWrite = filled;
+			}
+			if (spareBuffer != null) {
+				readBuffer = bufferSizer.nextReadBuffer(spareBuffer);
+				spareBuffer = null;
+			} else if (bufferCount < 2) {
+				readBuffer = bufferSizer.nextReadBuffer(null);
+				bufferCount++;
+			}
+			if (readBuffer != null) {
+				readPending = true;
+				toRead = readBuffer;
+			}
+		}
+		if (toWrite != null)
+			write(toWrite);
+		if (toRead != null)
+			read(toRead);
+	}
+
+	protected void writeCompleted() {
+		if (writeBuffer.hasRemaining()) {
+			idleTimeout.writeStarted();
+			target.write(writeBuffer, null, writeHandler);
+			return;
+		}
+		idleTimeout.writeCompleted();
+		if (writeTimed) {
+			writeTimed = false;
+			TunnelEvents.relayStall(name, target, System.nanoTime() - writeStartedAt, stallThresholdNanos,
+					writeBuffer.limit());
+		}
+		ByteBuffer toWrite = null;
+		ByteBuffer toRead = null;
+		boolean drained;
+		synchronized (this) {
+			writePending = false;
+			if (terminated) {
+				releaseIdleBuffers();
+				return;
+			}
+			var written = writeBuffer.clear();
+			writeBuffer = null;
+			if (queuedBuffer != null) {
+				writeBuffer = queuedBuffer;
+				queuedBuffer = null;
+				writePending = true;
+				toWrite = writeBuffer;
+			}
+			if (readPending && bufferSizer.isQuiet()) {
+				// the source has gone quiet, a second buffer would only sit idle
+				bufferSizer.release(written);
+				bufferCount--;
+			} else if (readPending || endOfStream)
+				spareBuffer = written;
+			else {
+				// the read side was stalled behind a full queue, resume it
+				written = bufferSizer.nextReadBuffer(written);
+				readBuffer = written;
+				readPending = true;
+				toRead = written;
+			}
+			drained = endOfStream && !writePending;
+		}
+		if (toWrite != null)
+			write(toWrite);
+		if (toRead != null)
+			read(toRead);
+		if (drained)
+			terminate(null, null);
+	}
+
+	private void read(ByteBuffer buffer) {
+		idleTimeout.readStarted();
+		source.read(buffer, null, readHandler);
+	}
+
+	// the first write of a buffer, a partial write continues from writeCompleted
+	private void write(ByteBuffer buffer) {
+		if (stallThresholdNanos > 0 && TunnelEvents.isRelayStallEnabled()) {
+			writeTimed = true;
+			writeStartedAt = System.nanoTime();
+		}
+		idleTimeout.writeStarted();
+		target.write(buffer, null, writeHandler);
+	}
+
+	protected void readFailed(Throwable error) {
+		synchronized (this) {
+			readPending = false;
+		}
+		if (TunnelUtils.isCertificateUnknownError(error))
+			terminate(null, null);
+		else
+			terminate(readErrorMessage, error);
+	}
+
+	protected void writeFailed(Throwable error) {
+		synchronized (this) {
+			writePending = false;
+		}
+		terminate(writeErrorMessage, error);
+	}
+
+	protected void terminate(String message, Throwable error) {
+		idleTimeout.cancel();
+		Runnable terminationListener;
+		synchronized (this) {
+			terminated = true;
+			terminationListener = this.terminationListener;
+			this.terminationListener = null;
+		}
+		if (error == null)
+			TunnelUtils.closeQuietly(source, target);
+		else
+			TunnelUtils.closeAndLogOnError(message, error, source, target);
+		synchronized (this) {
+			releaseIdleBuffers();
+		}
+		if (terminationListener != null)
+			terminationListener.run();
+	}
+
+	// buffers with an operation in flight are released by that operation's completion
+	private void releaseIdleBuffers() {
+		if (!readPending)
+			readBuffer = release(readBuffer);
+		if (!writePending)
+			writeBuffer = release(writeBuffer);
+		queuedBuffer = release(queuedBuffer);
+		spareBuffer = release(spareBuffer);
+	}
+
+	private ByteBuffer release(ByteBuffer buffer) {
+		if (buffer != null)
+			bufferSizer.release(buffer);
+		return null;
+	}
+
+}
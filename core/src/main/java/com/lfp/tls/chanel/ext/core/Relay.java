@@ -0,0 +1,167 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.CompletionHandler;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.LongConsumer;
+
+public class Relay implements TunnelRelay, CompletionHandler<Integer, Void> {
+
+	private final String name;
+	private final String readErrorMessage;
+	private final String writeErrorMessage;
+	private final AsynchronousByteChannel source;
+	private final AsynchronousByteChannel target;
+	private final ByteCounter counter;
+	private final AdaptiveBufferSizer bufferSizer;
+	private final IdleTimeout idleTimeout;
+	private ByteBuffer buffer;
+	private boolean writing;
+	private Runnable terminationListener;
+	private LongConsumer readListener;
+	private long stallThresholdNanos;
+	// only read while a recording has the relay stall event enabled
+	private long writeStartedAt;
+	private boolean writeTimed;
+
+	public Relay(String name, AsynchronousByteChannel source, AsynchronousByteChannel target, ByteCounter counter,
+			BufferPool bufferPool, ByteBuffer buffer) {
+		this(name, source, target, counter, AdaptiveBufferSizer.fixed(bufferPool, buffer.capacity()), buffer,
+				IdleTimeout.DISABLED);
+	}
+
+	public Relay(String name, AsynchronousByteChannel source, AsynchronousByteChannel target, ByteCounter counter,
+			AdaptiveBufferSizer bufferSizer, ByteBuffer buffer, IdleTimeout idleTimeout) {
+		this.name = name;
+		this.readErrorMessage = name + " read error";
+		this.writeErrorMessage = name + " write error";
+		this.source = Objects.requireNonNull(source);
+		this.target = Objects.requireNonNull(target);
+		this.counter = Objects.requireNonNull(counter);
+		this.bufferSizer = Objects.requireNonNull(bufferSizer);
+		this.buffer = Objects.requireNonNull(buffer);
+		this.idleTimeout = Objects.requireNonNull(idleTimeout);
+	}
+
+	@Override
+	public void start() {
+		idleTimeout.start();
+		if (buffer.position() > 0) {
+			bufferSizer.record(buffer.position(), buffer.capacity());
+			write();
+		} else
+			read();
+	}
+
+	@Override
+	public CompletionHandler<Integer, Void> adoptPendingRead() {
+		writing = false;
+		idleTimeout.readStarted();
+		idleTimeout.start();
+		return this;
+	}
+
+	@Override
+	public void setTerminationListener(Runnable terminationListener) {
+		this.terminationListener = terminationListener;
+	}
+
+	@Override
+	public void setReadListener(LongConsumer readListener) {
+		this.readListener = readListener;
+	}
+
+	@Override
+	public void setStallThreshold(Duration stallThreshold) {
+		this.stallThresholdNanos = stallThreshold == null ? 0 : stallThreshold.toNanos();
+	}
+
+	@Override
+	public void completed(Integer result, Void attachment) {
+		try {
+			if (writing)
+				writeCompleted();
+			else
+				readCompleted(result);
+		} catch (Throwable t) {
+			terminate(writing ? writeErrorMessage : readErrorMessage, t);
+		}
+	}
+
+	@Override
+	public void failed(Throwable exc, Void attachment) {
+		if (!writing && TunnelUtils.isCertificateUnknownError(exc))
+			terminate(null, null);
+		else
+			terminate(writing ? writeErrorMessage : readErrorMessage, exc);
+	}
+
+	protected void readCompleted(int result) {
+		idleTimeout.readCompleted();
+		if (result == -1) {
+			terminate(null, null);
+			return;
+		}
+		counter.count(result);
+		if (readListener != null)
+			readListener.accept(result);
+		bufferSizer.record(result, buffer.capacity());
+		write();
+	}
+
+	protected void writeCompleted() {
+		if (buffer.hasRemaining()) {
+			idleTimeout.writeStarted();
+			target.write(buffer, null, this);
+			return;
+		}
+		idleTimeout.writeCompleted();
+		if (writeTimed) {
+			writeTimed = false;
+			TunnelEvents.relayStall(name, target, System.nanoTime() - writeStartedAt, stallThresholdNanos,
+					buffer.limit());
+		}
+		buffer = bufferSizer.nextReadBuffer(buffer);
+		read();
+	}
+
+	protected void read() {
+		writing = false;
+		idleTimeout.readStarted();
+		source.read(buffer, null, this);
+	}
+
+	protected void write() {
+		writing = true;
+		buffer.flip();
+		if (stallThresholdNanos > 0 && TunnelEvents.isRelayStallEnabled()) {
+			writeTimed = true;
+			writeStartedAt = System.nanoTime();
+		}
+		idleTimeout.writeStarted();
+		target.write(buffer, null, this);
+	}
+
+	protected void terminate(String message, Throwable error) {
+		idleTimeout.cancel();
+		if (error == null)
+			TunnelUtils.closeQuietly(source, target);
+		else
+			TunnelUtils.closeAndLogOnError(message, error, source, target);
+		releaseBuffer();
+		var terminationListener = this.terminationListener;
+		this.terminationListener = null;
+		if (terminationListener != null)
+			terminationListener.run();
+	}
+
+	protected void releaseBuffer() {
+		if (buffer == null)
+			return;
+		bufferSizer.release(buffer);
+		buffer = null;
+	}
+
+}
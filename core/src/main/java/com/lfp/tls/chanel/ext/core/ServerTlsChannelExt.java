@@ -3,31 +3,30 @@ package com.lfp.tls.chanel.ext.core;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
 import java.time.Duration;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import javax.net.ssl.SNIServerName;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLSession;
 
 import tlschannel.NeedsReadException;
+import tlschannel.NeedsTaskException;
 import tlschannel.ServerTlsChannel;
 import tlschannel.SniSslContextFactory;
+import tlschannel.TlsChannelFlowControlException;
 import tlschannel.TlsChannel;
 import tlschannel.TrackingAllocator;
 
@@ -36,15 +35,24 @@ public class ServerTlsChannelExt implements TlsChannel {
 	}.getClass().getEnclosingClass();
 	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
 
-	private final ReadWriteLock sniSslContextFactoriesLock = new ReentrantReadWriteLock();
-	private final List<SniSslContextFactory> sniSslContextFactories = new ArrayList<>();
+	private static final SniSslContextFactory[] EMPTY_SNI_SSL_CONTEXT_FACTORIES = new SniSslContextFactory[0];
+	private static final String NULL_CIPHER_SUITE = "SSL_NULL_WITH_NULL_NULL";
+
+	// copy on write, a handshake reads one immutable snapshot
+	private volatile SniSslContextFactory[] sniSslContextFactories = EMPTY_SNI_SSL_CONTEXT_FACTORIES;
 	private final CompletableFuture<SSLSession> sslSessionFuture = new CompletableFuture<>();
-	private final AtomicReference<CompletableFuture<Void>> sslHandshakeTimeoutFutureRef = new AtomicReference<>();
+	private final CompletableFuture<Optional<SNIServerName>> sniServerNameFuture = new CompletableFuture<>();
 	private final ServerTlsChannel delegate;
+	private HashedWheelTimer timer = HashedWheelTimer.getDefault();
 	private Duration sslHandshakeTimeout;
+	// written once by the first read that needs the handshake, see handleRead
+	private volatile HashedWheelTimer.Timeout sslHandshakeTimeoutTimer;
+	private volatile long sslHandshakeStartedAt;
 	private boolean disableSslHandshakeTimeoutLogging;
 	private boolean fixedSSLContext;
 	private SNIServerName sniServerName;
+	// null without a recording, taken by whichever of completion, failure, timeout or close comes first
+	private volatile TunnelEvents.Handshake handshakeEvent;
 
 	public ServerTlsChannelExt(ByteChannel underlying, Consumer<ServerTlsChannel.Builder> builderModifier,
 			SniSslContextFactory... sniSslContextFactories) {
@@ -57,19 +65,16 @@ public class ServerTlsChannelExt implements TlsChannel {
 	@SuppressWarnings("unchecked")
 	public ServerTlsChannelExt(ByteChannel underlying, Consumer<ServerTlsChannel.Builder> builderModifier,
 			SSLContext fixedSSLContext) {
+		this.handshakeEvent = TunnelEvents.beginHandshake(underlying);
 		ServerTlsChannel.Builder delegateBuilder;
 		if (fixedSSLContext == null) {
 			delegateBuilder = ServerTlsChannel.newBuilder(underlying, sniServerNameOp -> {
-				sniSslContextFactoriesLock.readLock().lock();
 				this.sniServerName = sniServerNameOp.orElse(null);
-				try {
-					for (var fact : sniSslContextFactories) {
-						var sslContextOp = fact.getSslContext(sniServerNameOp);
-						if (sslContextOp != null && sslContextOp.isPresent())
-							return sslContextOp;
-					}
-				} finally {
-					sniSslContextFactoriesLock.readLock().unlock();
+				sniServerNameFuture.complete(sniServerNameOp);
+				for (var fact : sniSslContextFactories) {
+					var sslContextOp = fact.getSslContext(sniServerNameOp);
+					if (sslContextOp != null && sslContextOp.isPresent())
+						return sslContextOp;
 				}
 				return Optional.empty();
 			});
@@ -83,7 +88,11 @@ public class ServerTlsChannelExt implements TlsChannel {
 		TunnelUtils.uncheckedFieldAccess(this.delegate, "sessionInitCallback", Consumer.class, (getter, setter) -> {
 			Consumer<SSLSession> currentSessionInitCallback = getter.get();
 			Consumer<SSLSession> sessionInitCallback = ssls -> {
+				// a fixed ssl context never sees the sni callback
+				sniServerNameFuture.complete(Optional.ofNullable(sniServerName));
 				getSslSessionFuture().complete(ssls);
+				cancelSslHandshakeTimeout();
+				endHandshakeEvent(TunnelEvents.OUTCOME_COMPLETE, ssls, null);
 				if (currentSessionInitCallback != null)
 					currentSessionInitCallback.accept(ssls);
 			};
@@ -93,24 +102,50 @@ public class ServerTlsChannelExt implements TlsChannel {
 
 	}
 
+	// completes exceptionally when the handshake fails, times out or the channel closes first
 	public CompletableFuture<SSLSession> getSslSessionFuture() {
 		if (!sslSessionFuture.isDone()) {
-			var ssls = Optional.ofNullable(this.delegate.getSslEngine()).map(v -> v.getSession()).orElse(null);
-			if (ssls != null)
+			// mid handshake the engine hands out a placeholder session
+			var sslEngine = this.delegate.getSslEngine();
+			var ssls = sslEngine == null || sslEngine.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING ? null
+					: sslEngine.getSession();
+			if (ssls != null && !NULL_CIPHER_SUITE.equals(ssls.getCipherSuite()))
 				sslSessionFuture.complete(ssls);
 		}
 		return sslSessionFuture;
 	}
 
-	public boolean addSniSslContextFactory(SniSslContextFactory sniSslContextFactory) {
-		if (this.fixedSSLContext)
-			return false;
-		return TunnelUtils.lockAdd(sniSslContextFactoriesLock, sniSslContextFactories, sniSslContextFactory);
+	// completes as soon as the client hello has been parsed, before the handshake finishes
+	public CompletableFuture<Optional<SNIServerName>> getSniServerNameFuture() {
+		return sniServerNameFuture;
+	}
 
+	public synchronized boolean addSniSslContextFactory(SniSslContextFactory sniSslContextFactory) {
+		if (this.fixedSSLContext || sniSslContextFactory == null)
+			return false;
+		for (var current : sniSslContextFactories)
+			if (current.equals(sniSslContextFactory))
+				return false;
+		var sniSslContextFactories = Arrays.copyOf(this.sniSslContextFactories, this.sniSslContextFactories.length + 1);
+		sniSslContextFactories[sniSslContextFactories.length - 1] = sniSslContextFactory;
+		this.sniSslContextFactories = sniSslContextFactories;
+		return true;
 	}
 
-	public boolean removeSniSslContextFactory(SniSslContextFactory sniSslContextFactory) {
-		return TunnelUtils.lockRemove(sniSslContextFactoriesLock, sniSslContextFactories, sniSslContextFactory);
+	public synchronized boolean removeSniSslContextFactory(SniSslContextFactory sniSslContextFactory) {
+		if (sniSslContextFactory == null)
+			return false;
+		for (int i = 0; i < sniSslContextFactories.length; i++) {
+			if (!sniSslContextFactories[i].equals(sniSslContextFactory))
+				continue;
+			var sniSslContextFactories = Arrays.copyOf(this.sniSslContextFactories,
+					this.sniSslContextFactories.length - 1);
+			System.arraycopy(this.sniSslContextFactories, i + 1, sniSslContextFactories, i,
+					sniSslContextFactories.length - i);
+			this.sniSslContextFactories = sniSslContextFactories;
+			return true;
+		}
+		return false;
 	}
 
 	public SSLContext getSslContext() {
@@ -126,6 +161,14 @@ public class ServerTlsChannelExt implements TlsChannel {
 		this.disableSslHandshakeTimeoutLogging = disableSslHandshakeTimeoutLogging;
 	}
 
+	public HashedWheelTimer getTimer() {
+		return timer;
+	}
+
+	public void setTimer(HashedWheelTimer timer) {
+		this.timer = Objects.requireNonNull(timer);
+	}
+
 	@Override
 	public long read(ByteBuffer[] dstBuffers, int offset, int length) throws IOException {
 		return handleRead(() -> delegate.read(dstBuffers, offset, length));
@@ -145,43 +188,68 @@ public class ServerTlsChannelExt implements TlsChannel {
 		Objects.requireNonNull(readTask);
 		Exception error = null;
 		try {
-			return readTask.call();
+			return runTasks(readTask);
 		} catch (Exception e) {
 			error = e;
 		}
-		if (!(error instanceof NeedsReadException))
+		if (!(error instanceof NeedsReadException)) {
+			if (!(error instanceof TlsChannelFlowControlException))
+				handshakeFailed(error);
 			return TunnelUtils.tryThrowAs(error, IOException.class);
-		NeedsReadException needsReadException = (NeedsReadException) error;
+		}
+		startSslHandshakeTimeout();
+		throw (NeedsReadException) error;
+	}
+
+	// a handshake engine runs the expensive tasks off the channel group, any that still reach the group are
+	// post handshake messages and run inline
+	protected <X> X runTasks(Callable<X> task) throws Exception {
+		while (true) {
+			try {
+				return task.call();
+			} catch (NeedsTaskException e) {
+				e.getTask().run();
+			}
+		}
+	}
+
+	protected void startSslHandshakeTimeout() {
 		if (sslHandshakeTimeout == null)
-			throw needsReadException;
+			return;
 		if (getSslSessionFuture().isDone())
-			throw needsReadException;
-		if (sslHandshakeTimeoutFutureRef.get() == null) {
-			synchronized (sslHandshakeTimeoutFutureRef) {
-				if (sslHandshakeTimeoutFutureRef.get() == null) {
-					var executor = CompletableFuture.delayedExecutor(this.sslHandshakeTimeout.toMillis(),
-							TimeUnit.MILLISECONDS);
-					Date startedAt = new Date();
-					var future = CompletableFuture.runAsync(() -> closeIfNotReady(startedAt), executor);
-					this.getSslSessionFuture().whenComplete((v, t) -> future.cancel(true));
-					sslHandshakeTimeoutFutureRef.set(future);
-				}
-			}
+			return;
+		// reads and handshake steps on a channel are serialized, so this check needs no lock
+		if (sslHandshakeTimeoutTimer == null) {
+			sslHandshakeStartedAt = System.nanoTime();
+			var timeout = timer.newTimeout(this::closeIfNotReady);
+			sslHandshakeTimeoutTimer = timeout;
+			timeout.schedule(sslHandshakeTimeout);
+			// the session may have completed before the timer was visible to the callback
+			if (sslSessionFuture.isDone())
+				timeout.cancel();
 		}
-		throw needsReadException;
 	}
 
-	protected void closeIfNotReady(Date startedAt) {
+	protected void cancelSslHandshakeTimeout() {
+		var timeout = sslHandshakeTimeoutTimer;
+		if (timeout != null)
+			timeout.cancel();
+	}
+
+	// runs on the timer thread
+	protected void closeIfNotReady() {
 		if (getSslSessionFuture().isDone())
 			return;
 		Map<String, Object> logData = TunnelUtils.getSummary(this);
-		logData.put("elapsedMillis", System.currentTimeMillis() - startedAt.getTime());
+		logData.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sslHandshakeStartedAt));
 		logData.put("timeoutMillis", sslHandshakeTimeout.toMillis());
 		String msg = TunnelUtils.formatSummary("ssl handshake timeout.", logData);
 		var error = new SSLHandshakeException(msg);
+		sniServerNameFuture.completeExceptionally(error);
 		var completeExceptionally = getSslSessionFuture().completeExceptionally(error);
 		if (!completeExceptionally)
 			return;
+		endHandshakeEvent(TunnelEvents.OUTCOME_TIMEOUT, null, error);
 		try {
 			this.close();
 		} catch (IOException e) {
@@ -193,12 +261,19 @@ public class ServerTlsChannelExt implements TlsChannel {
 
 	@Override
 	public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
-		return delegate.write(srcs, offset, length);
+		// written out rather than through a callable, writes are on the relay hot path
+		while (true) {
+			try {
+				return delegate.write(srcs, offset, length);
+			} catch (NeedsTaskException e) {
+				e.getTask().run();
+			}
+		}
 	}
 
 	@Override
 	public long write(ByteBuffer[] srcs) throws IOException {
-		return delegate.write(srcs);
+		return write(srcs, 0, srcs.length);
 	}
 
 	public SNIServerName getSniServerName() {
@@ -238,7 +313,13 @@ public class ServerTlsChannelExt implements TlsChannel {
 
 	@Override
 	public int write(ByteBuffer srcBuffer) throws IOException {
-		return delegate.write(srcBuffer);
+		while (true) {
+			try {
+				return delegate.write(srcBuffer);
+			} catch (NeedsTaskException e) {
+				e.getTask().run();
+			}
+		}
 	}
 
 	@Override
@@ -248,14 +329,46 @@ public class ServerTlsChannelExt implements TlsChannel {
 
 	@Override
 	public void handshake() throws IOException {
-		delegate.handshake();
+		try {
+			delegate.handshake();
+		} catch (TlsChannelFlowControlException e) {
+			startSslHandshakeTimeout();
+			throw e;
+		} catch (IOException | RuntimeException e) {
+			handshakeFailed(e);
+			throw e;
+		}
 	}
 
 	@Override
 	public void close() throws IOException {
+		cancelSslHandshakeTimeout();
+		// a client that hangs up mid handshake
+		handshakeFailed(null);
 		delegate.close();
 	}
 
+	// errors after the session completed find the event taken and the futures done, those are relay errors
+	protected void handshakeFailed(Throwable error) {
+		var failure = error != null ? error : new ClosedChannelException();
+		sniServerNameFuture.completeExceptionally(failure);
+		sslSessionFuture.completeExceptionally(failure);
+		endHandshakeEvent(TunnelEvents.OUTCOME_FAILED, null, error);
+	}
+
+	private void endHandshakeEvent(String outcome, SSLSession sslSession, Throwable error) {
+		if (handshakeEvent == null)
+			return;
+		TunnelEvents.Handshake event;
+		synchronized (this) {
+			event = handshakeEvent;
+			handshakeEvent = null;
+		}
+		if (event != null)
+			TunnelEvents.endHandshake(event, TunnelUtils.getSNIServerNameValue(sniServerName).orElse(null), outcome,
+					sslSession, error);
+	}
+
 	@Override
 	public String toString() {
 		return delegate.toString();
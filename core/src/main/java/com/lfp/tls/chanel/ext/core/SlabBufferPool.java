@@ -0,0 +1,160 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SlabBufferPool implements BufferPool {
+
+	private static final int DEFAULT_PAGE_SIZE = 4 * 1024;
+	private static final int DEFAULT_MAX_CAPACITY = 256 * 1024;
+	private static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+	private static final int DEFAULT_THREAD_CACHE_BYTES = 256 * 1024;
+	private static final long DEFAULT_MAX_SHARED_BYTES = 64L * 1024 * 1024;
+	private static final SlabBufferPool DEFAULT_INSTANCE = new SlabBufferPool();
+
+	public static SlabBufferPool getDefault() {
+		return DEFAULT_INSTANCE;
+	}
+
+	private final AtomicLong allocatedBytes = new AtomicLong();
+	private final AtomicLong sharedBytes = new AtomicLong();
+	private final int pageSize;
+	private final int maxCapacity;
+	private final int slabSize;
+	private final int threadCacheBytes;
+	private final long maxSharedBytes;
+	private final SizeClass[] sizeClasses;
+	private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches;
+
+	public SlabBufferPool() {
+		this(DEFAULT_PAGE_SIZE, DEFAULT_MAX_CAPACITY, DEFAULT_SLAB_SIZE, DEFAULT_THREAD_CACHE_BYTES,
+				DEFAULT_MAX_SHARED_BYTES);
+	}
+
+	@SuppressWarnings("unchecked")
+	public SlabBufferPool(int pageSize, int maxCapacity, int slabSize, int threadCacheBytes, long maxSharedBytes) {
+		if (pageSize <= 0 || maxCapacity < pageSize || maxCapacity % pageSize != 0)
+			throw new IllegalArgumentException(
+					String.format("invalid page size. pageSize:%s maxCapacity:%s", pageSize, maxCapacity));
+		this.pageSize = pageSize;
+		this.maxCapacity = maxCapacity;
+		this.slabSize = Math.max(slabSize, pageSize);
+		this.threadCacheBytes = Math.max(threadCacheBytes, 0);
+		this.maxSharedBytes = Math.max(maxSharedBytes, 0);
+		this.sizeClasses = new SizeClass[maxCapacity / pageSize];
+		for (int i = 0; i < sizeClasses.length; i++)
+			sizeClasses[i] = new SizeClass((i + 1) * pageSize);
+		this.threadCaches = ThreadLocal.withInitial(() -> new ArrayDeque[sizeClasses.length]);
+	}
+
+	@Override
+	public ByteBuffer acquire(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("invalid capacity:" + capacity);
+		if (capacity > maxCapacity)
+			return ByteBuffer.allocateDirect(capacity);
+		var sizeClass = sizeClasses[(capacity - 1) / pageSize];
+		var threadCache = getThreadCache(sizeClass);
+		var buffer = threadCache.pollLast();
+		if (buffer == null)
+			buffer = sizeClass.poll(threadCache);
+		return buffer.clear();
+	}
+
+	@Override
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect() || buffer.isReadOnly())
+			return;
+		var capacity = buffer.capacity();
+		if (capacity > maxCapacity || capacity % pageSize != 0)
+			return;
+		var sizeClass = sizeClasses[(capacity - 1) / pageSize];
+		var threadCache = getThreadCache(sizeClass);
+		if (!sizeClass.offerThreadCache(threadCache, buffer))
+			sizeClass.offerShared(buffer);
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public int getMaxCapacity() {
+		return maxCapacity;
+	}
+
+	public long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	public long getSharedBytes() {
+		return sharedBytes.get();
+	}
+
+	private ArrayDeque<ByteBuffer> getThreadCache(SizeClass sizeClass) {
+		var threadCaches = this.threadCaches.get();
+		var index = (sizeClass.capacity / pageSize) - 1;
+		var threadCache = threadCaches[index];
+		if (threadCache == null) {
+			threadCache = new ArrayDeque<>(sizeClass.threadCacheLimit);
+			threadCaches[index] = threadCache;
+		}
+		return threadCache;
+	}
+
+	private class SizeClass {
+
+		private final ConcurrentLinkedQueue<ByteBuffer> shared = new ConcurrentLinkedQueue<>();
+		private final int capacity;
+		private final int threadCacheLimit;
+
+		public SizeClass(int capacity) {
+			this.capacity = capacity;
+			this.threadCacheLimit = Math.max(threadCacheBytes / capacity, 1);
+		}
+
+		public ByteBuffer poll(ArrayDeque<ByteBuffer> threadCache) {
+			var buffer = shared.poll();
+			if (buffer != null) {
+				sharedBytes.addAndGet(-capacity);
+				return buffer;
+			}
+			return carve(threadCache);
+		}
+
+		public boolean offerThreadCache(ArrayDeque<ByteBuffer> threadCache, ByteBuffer buffer) {
+			if (threadCache.size() >= threadCacheLimit)
+				return false;
+			threadCache.addLast(buffer);
+			return true;
+		}
+
+		public boolean offerShared(ByteBuffer buffer) {
+			if (sharedBytes.addAndGet(capacity) > maxSharedBytes) {
+				// over budget, let the slab be reclaimed once all of its slices are gone
+				sharedBytes.addAndGet(-capacity);
+				return false;
+			}
+			shared.offer(buffer);
+			return true;
+		}
+
+		private ByteBuffer carve(ArrayDeque<ByteBuffer> threadCache) {
+			var sliceCount = Math.max(slabSize / capacity, 1);
+			var slab = ByteBuffer.allocateDirect(sliceCount * capacity);
+			allocatedBytes.addAndGet(slab.capacity());
+			ByteBuffer result = null;
+			for (int i = 0; i < sliceCount; i++) {
+				slab.limit((i + 1) * capacity).position(i * capacity);
+				var slice = slab.slice();
+				if (result == null)
+					result = slice;
+				else if (!offerThreadCache(threadCache, slice))
+					offerShared(slice);
+			}
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,232 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/*
+ * routes server names to back ends. "api.example.com" matches the name only, "*.example.com" matches exactly one
+ * label in front of example.com and ".example.com" matches any name below example.com. an exact route beats a
+ * wildcard, a wildcard beats a suffix and the longest suffix wins. lookups read an immutable compiled snapshot
+ * and walk the name by index, so routing a handshake does not allocate
+ */
+public class SniRoutingTable<T> {
+
+	private static final String WILDCARD_PREFIX = "*.";
+	private static final String SUFFIX_PREFIX = ".";
+
+	private volatile Routes<T> routes = new Routes<>(Map.of(), null);
+
+	public SniRoutingTable() {}
+
+	public SniRoutingTable(Map<String, ? extends T> routes, T defaultRoute) {
+		reload(routes, defaultRoute);
+	}
+
+	// compiles the routes before swapping them in, lookups see either all old or all new routes
+	public void reload(Map<String, ? extends T> routes, T defaultRoute) {
+		this.routes = new Routes<>(routes, defaultRoute);
+	}
+
+	public T route(Optional<String> serverName) {
+		return route(serverName == null ? null : serverName.orElse(null));
+	}
+
+	// returns the default route when nothing matches, null when there is no default route either
+	public T route(String serverName) {
+		var routes = this.routes;
+		if (serverName == null)
+			return routes.defaultRoute;
+		int end = serverName.length();
+		if (end > 0 && serverName.charAt(end - 1) == '.')
+			end--;
+		if (end == 0)
+			return routes.defaultRoute;
+		var exactRoute = routes.exactRoutes.get(serverName, 0, end);
+		if (exactRoute != null)
+			return exactRoute;
+		T suffixRoute = null;
+		var node = routes.root;
+		int remainingEnd = end;
+		while (true) {
+			int labelStart = serverName.lastIndexOf('.', remainingEnd - 1) + 1;
+			node = node.children.get(serverName, labelStart, remainingEnd);
+			// the whole name matched, which only an exact route could have answered
+			if (node == null || labelStart <= 1)
+				break;
+			remainingEnd = labelStart - 1;
+			if (node.wildcardRoute != null && serverName.lastIndexOf('.', remainingEnd - 1) < 0)
+				return node.wildcardRoute;
+			if (node.suffixRoute != null)
+				suffixRoute = node.suffixRoute;
+		}
+		return suffixRoute != null ? suffixRoute : routes.defaultRoute;
+	}
+
+	public T getDefaultRoute() {
+		return routes.defaultRoute;
+	}
+
+	public int size() {
+		return routes.size;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SniRoutingTable [size=%s, defaultRoute=%s]", size(), getDefaultRoute());
+	}
+
+	private static int lowerCase(char c) {
+		return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+	}
+
+	private static int hash(String value, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++)
+			hash = 31 * hash + lowerCase(value.charAt(i));
+		return hash ^ (hash >>> 16);
+	}
+
+	private static String normalize(String pattern) {
+		Objects.requireNonNull(pattern);
+		var normalized = pattern.toLowerCase(Locale.ROOT);
+		if (normalized.endsWith(".") && !normalized.equals(SUFFIX_PREFIX))
+			normalized = normalized.substring(0, normalized.length() - 1);
+		return normalized;
+	}
+
+	private static List<String> parseLabels(String pattern, String name) {
+		var labels = new ArrayList<String>();
+		int labelEnd = name.length();
+		while (true) {
+			int labelStart = name.lastIndexOf('.', labelEnd - 1) + 1;
+			var label = name.substring(labelStart, labelEnd);
+			if (label.isEmpty() || label.indexOf('*') >= 0)
+				throw new IllegalArgumentException("invalid route pattern:" + pattern);
+			labels.add(label);
+			if (labelStart == 0)
+				return labels;
+			labelEnd = labelStart - 1;
+		}
+	}
+
+	private static class Routes<T> {
+
+		private final LabelTable<T> exactRoutes;
+		private final Node<T> root;
+		private final T defaultRoute;
+		private final int size;
+
+		public Routes(Map<String, ? extends T> routes, T defaultRoute) {
+			var exactRoutes = new HashMap<String, T>();
+			var root = new NodeBuilder<T>();
+			for (var routeEntry : routes.entrySet()) {
+				var pattern = routeEntry.getKey();
+				var route = Objects.requireNonNull(routeEntry.getValue());
+				var normalized = normalize(pattern);
+				T previous;
+				if (normalized.startsWith(WILDCARD_PREFIX)) {
+					var node = root.getOrCreate(parseLabels(pattern, normalized.substring(WILDCARD_PREFIX.length())));
+					previous = node.wildcardRoute;
+					node.wildcardRoute = route;
+				} else if (normalized.startsWith(SUFFIX_PREFIX)) {
+					var node = root.getOrCreate(parseLabels(pattern, normalized.substring(SUFFIX_PREFIX.length())));
+					previous = node.suffixRoute;
+					node.suffixRoute = route;
+				} else {
+					parseLabels(pattern, normalized);
+					previous = exactRoutes.put(normalized, route);
+				}
+				if (previous != null)
+					throw new IllegalArgumentException("duplicate route pattern:" + pattern);
+			}
+			this.exactRoutes = new LabelTable<>(exactRoutes);
+			this.root = root.build();
+			this.defaultRoute = defaultRoute;
+			this.size = routes.size();
+		}
+	}
+
+	private static class NodeBuilder<T> {
+
+		private final Map<String, NodeBuilder<T>> children = new HashMap<>();
+		private T wildcardRoute;
+		private T suffixRoute;
+
+		public NodeBuilder<T> getOrCreate(List<String> labels) {
+			var node = this;
+			for (var label : labels)
+				node = node.children.computeIfAbsent(label, nil -> new NodeBuilder<>());
+			return node;
+		}
+
+		public Node<T> build() {
+			var children = new HashMap<String, Node<T>>();
+			for (var child : this.children.entrySet())
+				children.put(child.getKey(), child.getValue().build());
+			return new Node<>(new LabelTable<>(children), wildcardRoute, suffixRoute);
+		}
+	}
+
+	private static class Node<T> {
+
+		private final LabelTable<Node<T>> children;
+		private final T wildcardRoute;
+		private final T suffixRoute;
+
+		public Node(LabelTable<Node<T>> children, T wildcardRoute, T suffixRoute) {
+			this.children = children;
+			this.wildcardRoute = wildcardRoute;
+			this.suffixRoute = suffixRoute;
+		}
+	}
+
+	// open addressing table keyed by lower case strings, looked up by a case insensitive range of another string
+	private static class LabelTable<V> {
+
+		private final String[] keys;
+		private final Object[] values;
+		private final int mask;
+
+		public LabelTable(Map<String, V> entries) {
+			int capacity = Integer.highestOneBit(Math.max(1, entries.size()) * 2 - 1) << 1;
+			this.keys = new String[capacity];
+			this.values = new Object[capacity];
+			this.mask = capacity - 1;
+			for (var entry : entries.entrySet()) {
+				var key = entry.getKey();
+				int index = hash(key, 0, key.length()) & mask;
+				while (keys[index] != null)
+					index = (index + 1) & mask;
+				keys[index] = key;
+				values[index] = entry.getValue();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		public V get(String value, int start, int end) {
+			int index = hash(value, start, end) & mask;
+			String key;
+			while ((key = keys[index]) != null) {
+				if (matches(key, value, start, end))
+					return (V) values[index];
+				index = (index + 1) & mask;
+			}
+			return null;
+		}
+
+		private static boolean matches(String key, String value, int start, int end) {
+			if (key.length() != end - start)
+				return false;
+			for (int i = 0; i < key.length(); i++)
+				if (key.charAt(i) != lowerCase(value.charAt(start + i)))
+					return false;
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLContext;
+
+import tlschannel.SniSslContextFactory;
+
+/*
+ * caches the context a loader resolves per server name. server names are chosen by the client, so a miss must stay
+ * cheap under a flood of random names: hits are a concurrent map lookup, misses that find nothing are not cached,
+ * and the size is bounded by sweeping a few entries at a time instead of scanning the map. replacing an entry swaps
+ * the certificate for new handshakes only
+ */
+public class SslContextCache implements SniSslContextFactory {
+
+	private static final String NO_SERVER_NAME_KEY = "";
+	// entries looked at per eviction, the least recently used of them goes
+	private static final int EVICTION_SAMPLE_SIZE = 8;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictedCount = new LongAdder();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final SniSslContextFactory loader;
+	private final int maxSize;
+	private final long ttlNanos;
+	// replaced whole by putAll and invalidateAll
+	private volatile ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+	// bumped by every explicit update so that a load racing it cannot store a replaced context
+	private volatile long generation;
+	// a clock hand over the map, guarded by the eviction lock
+	private Map<String, Entry> sweptEntries;
+	private Iterator<Map.Entry<String, Entry>> sweep;
+
+	// a null or non positive ttl keeps entries until they are evicted or invalidated
+	public SslContextCache(SniSslContextFactory loader, int maxSize, Duration ttl) {
+		this.loader = Objects.requireNonNull(loader);
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("invalid maxSize:" + maxSize);
+		this.maxSize = maxSize;
+		this.ttlNanos = ttl == null || ttl.isNegative() || ttl.isZero() ? 0 : ttl.toNanos();
+	}
+
+	@Override
+	public Optional<SSLContext> getSslContext(Optional<SNIServerName> sniServerName) {
+		var key = toKey(sniServerName);
+		var entries = this.entries;
+		var entry = entries.get(key);
+		long now = System.nanoTime();
+		if (entry != null && !entry.isExpired(now)) {
+			entry.lastAccessedAt = now;
+			hitCount.increment();
+			return entry.sslContext;
+		}
+		missCount.increment();
+		var loadGeneration = generation;
+		// concurrent misses for one name may load twice, the last one stored wins
+		var sslContext = loader.getSslContext(sniServerName);
+		if (sslContext == null || sslContext.isEmpty())
+			return Optional.empty();
+		// a slow load must not start the entry's ttl early
+		var loaded = new Entry(sslContext, System.nanoTime());
+		entries.compute(key, (nil, current) -> loadGeneration == generation ? loaded : current);
+		if (entries.size() > maxSize)
+			evict(entries);
+		return sslContext;
+	}
+
+	public synchronized void put(String serverName, SSLContext sslContext) {
+		generation++;
+		var entries = this.entries;
+		entries.put(toKey(serverName), new Entry(Optional.of(sslContext), System.nanoTime()));
+		if (entries.size() > maxSize)
+			evict(entries);
+	}
+
+	// atomically replaces every cached context, handshakes see either all old or all new entries
+	public synchronized void putAll(Map<String, SSLContext> sslContexts) {
+		generation++;
+		long now = System.nanoTime();
+		var updated = new ConcurrentHashMap<String, Entry>();
+		for (var sslContextEntry : sslContexts.entrySet())
+			updated.put(toKey(sslContextEntry.getKey()), new Entry(Optional.of(sslContextEntry.getValue()), now));
+		this.entries = updated;
+		if (updated.size() > maxSize)
+			evict(updated);
+	}
+
+	public synchronized boolean invalidate(String serverName) {
+		generation++;
+		return entries.remove(toKey(serverName)) != null;
+	}
+
+	// the next handshake for every server name reloads its context
+	public synchronized void invalidateAll() {
+		generation++;
+		this.entries = new ConcurrentHashMap<>();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	public long getEvictedCount() {
+		return evictedCount.sum();
+	}
+
+	// one thread sweeps at a time, the others skip rather than queue. the map may overshoot by the number of
+	// concurrent misses until the sweeping thread catches up
+	private void evict(Map<String, Entry> entries) {
+		if (!evictionLock.tryLock())
+			return;
+		try {
+			long now = System.nanoTime();
+			while (entries.size() > maxSize && entries == this.entries)
+				evictSample(entries, now);
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private void evictSample(Map<String, Entry> entries, long now) {
+		Map.Entry<String, Entry> leastRecent = null;
+		for (int i = 0; i < EVICTION_SAMPLE_SIZE; i++) {
+			if (sweptEntries != entries || !sweep.hasNext()) {
+				sweptEntries = entries;
+				sweep = entries.entrySet().iterator();
+				if (!sweep.hasNext())
+					return;
+			}
+			var candidate = sweep.next();
+			if (candidate.getValue().isExpired(now)) {
+				leastRecent = candidate;
+				break;
+			}
+			if (leastRecent == null
+					|| candidate.getValue().lastAccessedAt - leastRecent.getValue().lastAccessedAt < 0)
+				leastRecent = candidate;
+		}
+		if (entries.remove(leastRecent.getKey(), leastRecent.getValue()))
+			evictedCount.increment();
+	}
+
+	private static String toKey(Optional<SNIServerName> sniServerName) {
+		if (sniServerName == null || sniServerName.isEmpty())
+			return NO_SERVER_NAME_KEY;
+		var serverName = sniServerName.get();
+		if (serverName instanceof SNIHostName)
+			return toKey(((SNIHostName) serverName).getAsciiName());
+		return toKey(TunnelUtils.getSNIServerNameValue(serverName).orElse(null));
+	}
+
+	// host names compare case insensitively, lower casing an already lower case name does not copy it
+	private static String toKey(String serverName) {
+		if (serverName == null || serverName.isEmpty())
+			return NO_SERVER_NAME_KEY;
+		return serverName.toLowerCase(Locale.ROOT);
+	}
+
+	private class Entry {
+
+		private final Optional<SSLContext> sslContext;
+		private final long createdAt;
+		private volatile long lastAccessedAt;
+
+		public Entry(Optional<SSLContext> sslContext, long createdAt) {
+			this.sslContext = sslContext;
+			this.createdAt = createdAt;
+			this.lastAccessedAt = createdAt;
+		}
+
+		public boolean isExpired(long now) {
+			return ttlNanos > 0 && now - createdAt >= ttlNanos;
+		}
+	}
+
+}
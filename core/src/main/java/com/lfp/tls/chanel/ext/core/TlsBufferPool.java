@@ -0,0 +1,233 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import tlschannel.BufferAllocator;
+
+/*
+ * shared pool behind the plain and encrypted allocators of every tls channel. buffers keep the exact capacity
+ * requested, tls channels ask for a handful of sizes and track frees by capacity. the budget caps the bytes
+ * handed out, idle pooled bytes are capped separately
+ */
+public class TlsBufferPool {
+
+	private static final int MAX_SIZE_CLASSES = 16;
+	private static final int DEFAULT_BUFFERS_PER_SIZE_CLASS = 1024;
+	private static final long DEFAULT_MAX_POOLED_BYTES = 32L * 1024 * 1024;
+	private static final TlsBufferPool DEFAULT_INSTANCE = new TlsBufferPool(Long.MAX_VALUE);
+
+	public static TlsBufferPool getDefault() {
+		return DEFAULT_INSTANCE;
+	}
+
+	private final AtomicLong liveBytes = new AtomicLong();
+	private final AtomicLong peakBytes = new AtomicLong();
+	private final AtomicLong pooledBytes = new AtomicLong();
+	private final LongAdder rejectedCount = new LongAdder();
+	private final Allocator plainAllocator = new Allocator();
+	private final Allocator encryptedAllocator = new Allocator();
+	// copy on write, tls channels use few distinct sizes so a linear scan beats a map lookup
+	private volatile SizeClass[] sizeClasses = new SizeClass[0];
+	private final long budgetBytes;
+	private final long maxPooledBytes;
+	private final int buffersPerSizeClass;
+
+	public TlsBufferPool(long budgetBytes) {
+		this(budgetBytes, DEFAULT_MAX_POOLED_BYTES, DEFAULT_BUFFERS_PER_SIZE_CLASS);
+	}
+
+	public TlsBufferPool(long budgetBytes, long maxPooledBytes, int buffersPerSizeClass) {
+		if (budgetBytes <= 0)
+			throw new IllegalArgumentException("invalid budgetBytes:" + budgetBytes);
+		this.budgetBytes = budgetBytes;
+		this.maxPooledBytes = Math.max(0, maxPooledBytes);
+		this.buffersPerSizeClass = Math.max(1, buffersPerSizeClass);
+	}
+
+	public BufferAllocator getPlainAllocator() {
+		return plainAllocator;
+	}
+
+	public BufferAllocator getEncryptedAllocator() {
+		return encryptedAllocator;
+	}
+
+	public long getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	public long getLiveBytes() {
+		return liveBytes.get();
+	}
+
+	public long getPeakBytes() {
+		return peakBytes.get();
+	}
+
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.sum();
+	}
+
+	public long getPlainLiveBytes() {
+		return plainAllocator.liveBytes.get();
+	}
+
+	public long getPlainPeakBytes() {
+		return plainAllocator.peakBytes.get();
+	}
+
+	public long getEncryptedLiveBytes() {
+		return encryptedAllocator.liveBytes.get();
+	}
+
+	public long getEncryptedPeakBytes() {
+		return encryptedAllocator.peakBytes.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"TlsBufferPool [liveBytes=%s, peakBytes=%s, pooledBytes=%s, budgetBytes=%s, rejectedCount=%s, plainLiveBytes=%s, encryptedLiveBytes=%s]",
+				getLiveBytes(), getPeakBytes(), getPooledBytes(), getBudgetBytes(), getRejectedCount(),
+				getPlainLiveBytes(), getEncryptedLiveBytes());
+	}
+
+	protected ByteBuffer acquire(int size) {
+		if (liveBytes.addAndGet(size) > budgetBytes) {
+			liveBytes.addAndGet(-size);
+			rejectedCount.increment();
+			throw new IllegalStateException(
+					String.format("tls buffer budget exceeded. size:%s budgetBytes:%s", size, budgetBytes));
+		}
+		peakBytes.accumulateAndGet(liveBytes.get(), Math::max);
+		var sizeClass = getSizeClass(size);
+		var buffer = sizeClass == null ? null : sizeClass.poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(size);
+		pooledBytes.addAndGet(-size);
+		return buffer.clear();
+	}
+
+	protected void release(ByteBuffer buffer) {
+		var size = buffer.capacity();
+		liveBytes.addAndGet(-size);
+		if (!buffer.isDirect())
+			return;
+		var sizeClass = getSizeClass(size);
+		if (sizeClass == null)
+			return;
+		if (pooledBytes.addAndGet(size) > maxPooledBytes || !sizeClass.offer(buffer))
+			pooledBytes.addAndGet(-size);
+	}
+
+	private SizeClass getSizeClass(int size) {
+		var sizeClasses = this.sizeClasses;
+		for (var sizeClass : sizeClasses)
+			if (sizeClass.size == size)
+				return sizeClass;
+		return addSizeClass(size);
+	}
+
+	private synchronized SizeClass addSizeClass(int size) {
+		var sizeClasses = this.sizeClasses;
+		for (var sizeClass : sizeClasses)
+			if (sizeClass.size == size)
+				return sizeClass;
+		// unusual sizes are allocated and dropped rather than pooled
+		if (sizeClasses.length >= MAX_SIZE_CLASSES)
+			return null;
+		var updated = new SizeClass[sizeClasses.length + 1];
+		System.arraycopy(sizeClasses, 0, updated, 0, sizeClasses.length);
+		var sizeClass = new SizeClass(size, buffersPerSizeClass);
+		updated[sizeClasses.length] = sizeClass;
+		this.sizeClasses = updated;
+		return sizeClass;
+	}
+
+	private class Allocator implements BufferAllocator {
+
+		private final AtomicLong liveBytes = new AtomicLong();
+		private final AtomicLong peakBytes = new AtomicLong();
+
+		@Override
+		public ByteBuffer allocate(int size) {
+			var buffer = acquire(size);
+			peakBytes.accumulateAndGet(liveBytes.addAndGet(size), Math::max);
+			return buffer;
+		}
+
+		@Override
+		public void free(ByteBuffer buffer) {
+			liveBytes.addAndGet(-buffer.capacity());
+			release(buffer);
+		}
+	}
+
+	// bounded multi producer, multi consumer ring. a slot is writable when its sequence equals the producer
+	// position and readable when it equals the consumer position + 1
+	private static class SizeClass {
+
+		private final AtomicLong producerPosition = new AtomicLong();
+		private final AtomicLong consumerPosition = new AtomicLong();
+		private final AtomicLongArray sequences;
+		private final AtomicReferenceArray<ByteBuffer> buffers;
+		private final int mask;
+		private final int size;
+
+		public SizeClass(int size, int capacity) {
+			var ringSize = Integer.highestOneBit(capacity);
+			if (ringSize < capacity)
+				ringSize = ringSize << 1;
+			this.mask = ringSize - 1;
+			this.sequences = new AtomicLongArray(ringSize);
+			for (int i = 0; i < ringSize; i++)
+				this.sequences.set(i, i);
+			this.buffers = new AtomicReferenceArray<>(ringSize);
+			this.size = size;
+		}
+
+		public boolean offer(ByteBuffer buffer) {
+			long position = producerPosition.get();
+			while (true) {
+				int index = (int) (position & mask);
+				long difference = sequences.get(index) - position;
+				if (difference == 0) {
+					if (producerPosition.compareAndSet(position, position + 1)) {
+						buffers.lazySet(index, buffer);
+						sequences.lazySet(index, position + 1);
+						return true;
+					}
+				} else if (difference < 0)
+					return false;
+				position = producerPosition.get();
+			}
+		}
+
+		public ByteBuffer poll() {
+			long position = consumerPosition.get();
+			while (true) {
+				int index = (int) (position & mask);
+				long difference = sequences.get(index) - (position + 1);
+				if (difference == 0) {
+					if (consumerPosition.compareAndSet(position, position + 1)) {
+						var buffer = buffers.get(index);
+						buffers.lazySet(index, null);
+						sequences.lazySet(index, position + mask + 1);
+						return buffer;
+					}
+				} else if (difference < 0)
+					return null;
+				position = consumerPosition.get();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import tlschannel.async.AsynchronousTlsChannelGroup;
+
+public class TlsChannelGroupPool {
+
+	public static enum SelectionStrategy {
+		ROUND_ROBIN, LEAST_LOADED;
+	}
+
+	private final AtomicInteger nextIndex = new AtomicInteger();
+	private final AsynchronousTlsChannelGroup[] channelGroups;
+	private final LongAdder[] assignedCounts;
+	private final SelectionStrategy selectionStrategy;
+
+	public TlsChannelGroupPool() {
+		this(Runtime.getRuntime().availableProcessors(), 1, SelectionStrategy.LEAST_LOADED);
+	}
+
+	public TlsChannelGroupPool(int groupCount, int threadsPerGroup, SelectionStrategy selectionStrategy) {
+		this(selectionStrategy, createChannelGroups(groupCount, threadsPerGroup));
+	}
+
+	public TlsChannelGroupPool(SelectionStrategy selectionStrategy, AsynchronousTlsChannelGroup... channelGroups) {
+		this.selectionStrategy = Objects.requireNonNull(selectionStrategy);
+		if (channelGroups == null || channelGroups.length == 0)
+			throw new IllegalArgumentException("channel groups required");
+		this.channelGroups = Arrays.stream(channelGroups).map(Objects::requireNonNull)
+				.toArray(AsynchronousTlsChannelGroup[]::new);
+		this.assignedCounts = new LongAdder[channelGroups.length];
+		for (int i = 0; i < assignedCounts.length; i++)
+			assignedCounts[i] = new LongAdder();
+	}
+
+	public AsynchronousTlsChannelGroup next() {
+		var index = nextIndex();
+		assignedCounts[index].increment();
+		return channelGroups[index];
+	}
+
+	protected int nextIndex() {
+		var start = Math.floorMod(nextIndex.getAndIncrement(), channelGroups.length);
+		if (selectionStrategy == SelectionStrategy.ROUND_ROBIN || channelGroups.length == 1)
+			return start;
+		// scan from a rotating start so that ties do not always land on the first group
+		var index = start;
+		var load = channelGroups[start].getCurrentRegistrationCount();
+		for (int i = 1; i < channelGroups.length && load > 0; i++) {
+			var candidate = (start + i) % channelGroups.length;
+			var candidateLoad = channelGroups[candidate].getCurrentRegistrationCount();
+			if (candidateLoad < load) {
+				index = candidate;
+				load = candidateLoad;
+			}
+		}
+		return index;
+	}
+
+	public SelectionStrategy getSelectionStrategy() {
+		return selectionStrategy;
+	}
+
+	public int size() {
+		return channelGroups.length;
+	}
+
+	public List<GroupStats> getStats() {
+		var result = new ArrayList<GroupStats>(channelGroups.length);
+		for (int i = 0; i < channelGroups.length; i++) {
+			var channelGroup = channelGroups[i];
+			result.add(new GroupStats(i, assignedCounts[i].sum(), channelGroup.getCurrentRegistrationCount(),
+					channelGroup.getCurrentReadCount(), channelGroup.getCurrentWriteCount(),
+					channelGroup.getSelectionCount()));
+		}
+		return result;
+	}
+
+	public void shutdown() {
+		for (var channelGroup : channelGroups)
+			channelGroup.shutdown();
+	}
+
+	private static AsynchronousTlsChannelGroup[] createChannelGroups(int groupCount, int threadsPerGroup) {
+		if (groupCount <= 0)
+			throw new IllegalArgumentException("invalid groupCount:" + groupCount);
+		var channelGroups = new AsynchronousTlsChannelGroup[groupCount];
+		for (int i = 0; i < groupCount; i++)
+			channelGroups[i] = new AsynchronousTlsChannelGroup(Math.max(threadsPerGroup, 1));
+		return channelGroups;
+	}
+
+	public static class GroupStats {
+
+		private final int index;
+		private final long assignedCount;
+		private final long registrationCount;
+		private final long pendingReadCount;
+		private final long pendingWriteCount;
+		private final long selectionCount;
+
+		public GroupStats(int index, long assignedCount, long registrationCount, long pendingReadCount,
+				long pendingWriteCount, long selectionCount) {
+			super();
+			this.index = index;
+			this.assignedCount = assignedCount;
+			this.registrationCount = registrationCount;
+			this.pendingReadCount = pendingReadCount;
+			this.pendingWriteCount = pendingWriteCount;
+			this.selectionCount = selectionCount;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		// connections handed to this group since it was created
+		public long getAssignedCount() {
+			return assignedCount;
+		}
+
+		// connections currently registered with this group's selector
+		public long getRegistrationCount() {
+			return registrationCount;
+		}
+
+		public long getPendingReadCount() {
+			return pendingReadCount;
+		}
+
+		public long getPendingWriteCount() {
+			return pendingWriteCount;
+		}
+
+		public long getSelectionCount() {
+			return selectionCount;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"index:%s assignedCount:%s registrationCount:%s pendingReadCount:%s pendingWriteCount:%s selectionCount:%s",
+					index, assignedCount, registrationCount, pendingReadCount, pendingWriteCount, selectionCount);
+		}
+
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+
+public class TlsPassthroughTunneler extends Tunneler {
+
+	private SniRoutingTable<SocketAddress> sniRoutingTable = new SniRoutingTable<>();
+
+	public TlsPassthroughTunneler() {
+		super();
+	}
+
+	public TlsPassthroughTunneler(AsynchronousChannelGroup asynchronousChannelGroup) {
+		super(asynchronousChannelGroup);
+	}
+
+	public SniRoutingTable<SocketAddress> getSniRoutingTable() {
+		return sniRoutingTable;
+	}
+
+	public void setSniRoutingTable(SniRoutingTable<SocketAddress> sniRoutingTable) {
+		this.sniRoutingTable = Objects.requireNonNull(sniRoutingTable);
+	}
+
+	@Override
+	protected AsynchronousByteChannel createAsynchronousByteChannel(AsynchronousServerSocketChannel serverBind)
+			throws IOException {
+		return new ClientHelloChannel((AsynchronousSocketChannel) super.createAsynchronousByteChannel(serverBind));
+	}
+
+	@Override
+	protected void rejectFrontEnd(AsynchronousByteChannel byteChannel) {
+		TunnelUtils.resetQuietly(((ClientHelloChannel) byteChannel).getDelegate());
+	}
+
+	@Override
+	protected boolean isBackEndRoutable(AsynchronousByteChannel byteChannel, ByteBuffer buffer) {
+		return ((ClientHelloChannel) byteChannel).parseClientHello(buffer);
+	}
+
+	@Override
+	protected CompletionStage<?> getBackEndRoutingFuture(AsynchronousByteChannel byteChannel) {
+		return ((ClientHelloChannel) byteChannel).getClientHelloFuture();
+	}
+
+	@Override
+	protected SocketAddress getBackEndSocketAddress(AsynchronousByteChannel byteChannel) {
+		var clientHello = ((ClientHelloChannel) byteChannel).getClientHelloFuture().getNow(null);
+		if (clientHello == null)
+			return null;
+		return getBackEndSocketAddress(clientHello.getServerName(), clientHello.getAlpnProtocols());
+	}
+
+	@Override
+	protected Optional<String> getServerName(AsynchronousByteChannel byteChannel) {
+		var clientHello = ((ClientHelloChannel) byteChannel).getClientHelloFuture().getNow(null);
+		return clientHello == null ? Optional.empty() : clientHello.getServerName();
+	}
+
+	// routes through the sni routing table unless overridden, alpn based routing needs an override. host names are
+	// returned unresolved, see AbstractTunneler.getBackEndSocketAddress
+	protected SocketAddress getBackEndSocketAddress(Optional<String> sniServerName, List<String> alpnProtocols) {
+		return sniRoutingTable.route(sniServerName);
+	}
+
+}
@@ -2,35 +2,122 @@ package com.lfp.tls.chanel.ext.core;
 
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.nio.channels.CompletionHandler;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.time.Duration;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import javax.net.ssl.SNIServerName;
 import javax.net.ssl.SSLContext;
 
+import tlschannel.ServerTlsChannel;
+import tlschannel.SniSslContextFactory;
 import tlschannel.async.AsynchronousTlsChannelGroup;
 
 public abstract class TlsTunneler extends AbstractTunneler<ServerSocketChannel, AsynchronousTlsChannelExt> {
-	private final AsynchronousTlsChannelGroup channelGroup;
+	private final TlsChannelGroupPool channelGroupPool;
 	private final Duration sslHandshakeTimeout;
+	private int acceptorThreads = 1;
+	private int setupThreads = Runtime.getRuntime().availableProcessors();
+	private HandshakeEngine handshakeEngine;
+	private TlsBufferPool tlsBufferPool = TlsBufferPool.getDefault();
+	private SslContextCache sslContextCache;
+	private SniRoutingTable<SocketAddress> sniRoutingTable = new SniRoutingTable<>();
 
 	public TlsTunneler(Duration sslHandshakeTimeout) throws IOException {
-		this(new AsynchronousTlsChannelGroup(), sslHandshakeTimeout);
+		this(new TlsChannelGroupPool(), sslHandshakeTimeout);
 	}
 
 	public TlsTunneler(AsynchronousTlsChannelGroup channelGroup, Duration sslHandshakeTimeout) throws IOException {
-		this.channelGroup = Objects.requireNonNull(channelGroup);
+		this(new TlsChannelGroupPool(TlsChannelGroupPool.SelectionStrategy.ROUND_ROBIN, channelGroup),
+				sslHandshakeTimeout);
+	}
+
+	public TlsTunneler(TlsChannelGroupPool channelGroupPool, Duration sslHandshakeTimeout) throws IOException {
+		this.channelGroupPool = Objects.requireNonNull(channelGroupPool);
 		this.sslHandshakeTimeout = sslHandshakeTimeout;
 	}
 
+	public TlsChannelGroupPool getChannelGroupPool() {
+		return channelGroupPool;
+	}
+
+	public int getAcceptorThreads() {
+		return acceptorThreads;
+	}
+
+	public void setAcceptorThreads(int acceptorThreads) {
+		this.acceptorThreads = Math.max(acceptorThreads, 1);
+	}
+
+	public int getSetupThreads() {
+		return setupThreads;
+	}
+
+	public void setSetupThreads(int setupThreads) {
+		this.setupThreads = Math.max(setupThreads, 1);
+	}
+
+	public HandshakeEngine getHandshakeEngine() {
+		return handshakeEngine;
+	}
+
+	// null completes handshakes on the channel group threads
+	public void setHandshakeEngine(HandshakeEngine handshakeEngine) {
+		this.handshakeEngine = handshakeEngine;
+	}
+
+	public TlsBufferPool getTlsBufferPool() {
+		return tlsBufferPool;
+	}
+
+	public void setTlsBufferPool(TlsBufferPool tlsBufferPool) {
+		this.tlsBufferPool = Objects.requireNonNull(tlsBufferPool);
+	}
+
+	public SslContextCache getSslContextCache() {
+		return sslContextCache;
+	}
+
+	// null, the default, calls getSSLContext on every handshake. a cache should load through getSSLContext unless
+	// contexts are only ever put into it, and its ttl bounds how long a certificate rotated outside of
+	// reloadSslContexts keeps being served
+	public void setSslContextCache(SslContextCache sslContextCache) {
+		this.sslContextCache = sslContextCache;
+	}
+
+	// running tunnels pick up new certificates on their next handshake, established connections are untouched
+	public void reloadSslContexts() {
+		var sslContextCache = this.sslContextCache;
+		if (sslContextCache != null)
+			sslContextCache.invalidateAll();
+	}
+
+	public void reloadSslContext(String serverName) {
+		var sslContextCache = this.sslContextCache;
+		if (sslContextCache != null)
+			sslContextCache.invalidate(serverName);
+	}
+
+	public SniRoutingTable<SocketAddress> getSniRoutingTable() {
+		return sniRoutingTable;
+	}
+
+	public void setSniRoutingTable(SniRoutingTable<SocketAddress> sniRoutingTable) {
+		this.sniRoutingTable = Objects.requireNonNull(sniRoutingTable);
+	}
+
 	@Override
 	protected ServerSocketChannel serverBind(SocketAddress address) throws IOException {
 		ServerSocketChannel serverSocket = ServerSocketChannel.open();
 		try {
-			serverSocket.bind(address);
+			serverSocket.bind(address, getAcceptBacklog());
 		} catch (IOException t) {
 			serverSocket.close();
 			throw t;
@@ -44,18 +131,133 @@ public abstract class TlsTunneler extends AbstractTunneler<ServerSocketChannel,
 		return getBackEndSocketAddress(TunnelUtils.getSNIServerNameValue(sniServerName));
 	}
 
+	@Override
+	protected Optional<String> getServerName(AsynchronousTlsChannelExt byteChannel) {
+		return TunnelUtils.getSNIServerNameValue(byteChannel.getTlsChannel().getSniServerName());
+	}
+
+	@Override
+	protected CompletionStage<?> getBackEndRoutingFuture(AsynchronousTlsChannelExt byteChannel) {
+		return byteChannel.getTlsChannel().getSniServerNameFuture();
+	}
+
+	@Override
+	protected void acceptLoop(ServerSocketChannel serverBind, TunnelContext context) throws IOException {
+		var setupThreadIndex = new AtomicInteger();
+		var setupExecutor = Executors.newFixedThreadPool(setupThreads, r -> {
+			var thread = new Thread(r, String.format("connection-setup-%s", setupThreadIndex.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			// the acceptors only accept, tls channel construction happens on the setup threads
+			// admission runs before the tls channel exists, a rejected socket never gets an engine
+			new AcceptEngine(serverBind, acceptorThreads, setupExecutor, rawChannel -> {
+				TunnelEvents.connectionAccepted(rawChannel);
+				admitHandshake((admissionController, handshakeCompleted) -> {
+					long acceptedAt = System.nanoTime();
+					var metrics = context.getMetrics();
+					var handshakeEngine = getHandshakeEngine();
+					if (handshakeEngine == null) {
+						var byteChannel = TunnelUtils.unchecked(() -> createAsynchronousByteChannel(rawChannel));
+						recordHandshake(byteChannel.getTlsChannel(), metrics, acceptedAt);
+						releaseOnHandshake(byteChannel.getTlsChannel(), handshakeCompleted);
+						frontEndRead(byteChannel, context, admissionController);
+					} else {
+						var tlsChannel = TunnelUtils.unchecked(() -> createTlsChannel(rawChannel, handshakeEngine));
+						recordHandshake(tlsChannel, metrics, acceptedAt);
+						releaseOnHandshake(tlsChannel, handshakeCompleted);
+						handshakeEngine.handshake(tlsChannel, new CompletionHandler<Void, Void>() {
+
+							@Override
+							public void completed(Void result, Void attachment) {
+								AsynchronousTlsChannelExt byteChannel;
+								try {
+									byteChannel = new AsynchronousTlsChannelExt(channelGroupPool.next(), tlsChannel);
+								} catch (Throwable t) {
+									failed(t, attachment);
+									return;
+								}
+								frontEndRead(byteChannel, context, admissionController);
+							}
+
+							@Override
+							public void failed(Throwable exc, Void attachment) {
+								// a timed out handshake was closed and logged by the tls channel
+								if (!tlsChannel.isOpen() || TunnelUtils.isCertificateUnknownError(exc))
+									TunnelUtils.closeQuietly(tlsChannel);
+								else
+									TunnelUtils.closeAndLogOnError("frontEnd handshake error", exc, tlsChannel);
+								// closing the channel above already failed the session future, this only counts once
+								handshakeCompleted.run();
+								if (admissionController != null)
+									admissionController.tunnelClosed();
+							}
+						});
+					}
+				}, () -> TunnelUtils.resetQuietly(rawChannel), setupExecutor);
+			}).run();
+		} finally {
+			setupExecutor.shutdown();
+		}
+	}
+
+	// the slot is held for the tls handshake only, a server first protocol or an idle client does not keep it
+	private void releaseOnHandshake(ServerTlsChannelExt tlsChannel, Runnable handshakeCompleted) {
+		tlsChannel.getSslSessionFuture().whenComplete((sslSession, error) -> handshakeCompleted.run());
+	}
+
+	// the accepted time is taken when setup starts, a backlog in front of the setup threads is not included
+	private void recordHandshake(ServerTlsChannelExt tlsChannel, TunnelMetrics metrics, long acceptedAt) {
+		if (metrics == null)
+			return;
+		tlsChannel.getSslSessionFuture().whenComplete((sslSession, error) -> {
+			if (error != null)
+				return;
+			var serverName = metrics.isServerNameTracking()
+					? TunnelUtils.getSNIServerNameValue(tlsChannel.getSniServerName()).orElse(null)
+					: null;
+			metrics.record(TunnelMetrics.Phase.HANDSHAKE, System.nanoTime() - acceptedAt, serverName);
+		});
+	}
+
 	@Override
 	protected AsynchronousTlsChannelExt createAsynchronousByteChannel(ServerSocketChannel serverBind)
 			throws IOException {
-		SocketChannel rawChannel = serverBind.accept();
+		return createAsynchronousByteChannel(serverBind.accept());
+	}
+
+	protected AsynchronousTlsChannelExt createAsynchronousByteChannel(SocketChannel rawChannel) throws IOException {
+		return new AsynchronousTlsChannelExt(channelGroupPool.next(), createTlsChannel(rawChannel, null));
+	}
+
+	protected ServerTlsChannelExt createTlsChannel(SocketChannel rawChannel, HandshakeEngine handshakeEngine)
+			throws IOException {
 		rawChannel.configureBlocking(false);
-		var asyncTlsChannel = new AsynchronousTlsChannelExt(channelGroup, rawChannel, null, v -> getSSLContext(v));
-		if (sslHandshakeTimeout != null)
-			asyncTlsChannel.getTlsChannel().setSslHandshakeTimeout(sslHandshakeTimeout);
-		return asyncTlsChannel;
+		configureSocket(rawChannel);
+		var tlsBufferPool = getTlsBufferPool();
+		Consumer<ServerTlsChannel.Builder> builderModifier = builder -> {
+			builder.withPlainBufferAllocator(tlsBufferPool.getPlainAllocator());
+			builder.withEncryptedBufferAllocator(tlsBufferPool.getEncryptedAllocator());
+			// with an engine the delegated tasks surface as exceptions and run on its pool
+			if (handshakeEngine != null)
+				builder.withRunTasks(false);
+		};
+		var sslContextCache = getSslContextCache();
+		SniSslContextFactory sslContextFactory = sslContextCache != null ? sslContextCache : this::getSSLContext;
+		var tlsChannel = new ServerTlsChannelExt(rawChannel, builderModifier, sslContextFactory);
+		if (sslHandshakeTimeout != null) {
+			tlsChannel.setTimer(getTimer());
+			tlsChannel.setSslHandshakeTimeout(sslHandshakeTimeout);
+		}
+		return tlsChannel;
 	}
 
-	protected abstract SocketAddress getBackEndSocketAddress(Optional<String> sniServerName);
+	// routes through the sni routing table unless overridden. return host names unresolved so that they go through
+	// the host resolver cache, see AbstractTunneler.getBackEndSocketAddress
+	protected SocketAddress getBackEndSocketAddress(Optional<String> sniServerName) {
+		return sniRoutingTable.route(sniServerName);
+	}
 
 	protected abstract Optional<SSLContext> getSSLContext(Optional<SNIServerName> sniServerNameOp);
 
@@ -13,13 +13,27 @@ public class Tunnel implements Future<Void> {
 	private final SocketAddress backEndAddress;
 	private ByteCounter readCounter;
 	private ByteCounter writeCounter;
+	private final ConnectionRegistry connectionRegistry;
+	private final TunnelMetrics metrics;
 
 	public Tunnel(Future<Void> delegate, SocketAddress backEndAddress, ByteCounter readCounter,
 			ByteCounter writeCounter) {
+		this(delegate, backEndAddress, readCounter, writeCounter, null);
+	}
+
+	public Tunnel(Future<Void> delegate, SocketAddress backEndAddress, ByteCounter readCounter,
+			ByteCounter writeCounter, ConnectionRegistry connectionRegistry) {
+		this(delegate, backEndAddress, readCounter, writeCounter, connectionRegistry, null);
+	}
+
+	public Tunnel(Future<Void> delegate, SocketAddress backEndAddress, ByteCounter readCounter,
+			ByteCounter writeCounter, ConnectionRegistry connectionRegistry, TunnelMetrics metrics) {
 		this.delegate = Objects.requireNonNull(delegate);
 		this.backEndAddress = Objects.requireNonNull(backEndAddress);
 		this.readCounter = Objects.requireNonNull(readCounter);
 		this.writeCounter = Objects.requireNonNull(writeCounter);
+		this.connectionRegistry = connectionRegistry;
+		this.metrics = metrics;
 	}
 
 	public SocketAddress getBackEndAddress() {
@@ -34,8 +48,21 @@ public class Tunnel implements Future<Void> {
 		return writeCounter;
 	}
 
+	// the live connections accepted by this listener only, null when the tunneler does not track them. cancel stops
+	// accepting, connectionRegistry.closeAll closes what is already open
+	public ConnectionRegistry getConnectionRegistry() {
+		return connectionRegistry;
+	}
+
+	// the latency histograms of this listener, they keep their values after the tunnel stops
+	public TunnelMetrics getMetrics() {
+		return metrics;
+	}
+
 	@Override
 	public boolean cancel(boolean mayInterruptIfRunning) {
+		readCounter.setNotificationInterval(null);
+		writeCounter.setNotificationInterval(null);
 		return delegate.cancel(mayInterruptIfRunning);
 	}
 
@@ -0,0 +1,39 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.util.Objects;
+
+// the state of one start(), the accept loop passes it down to every connection it accepts
+public class TunnelContext {
+
+	private final ByteCounter readCounter;
+	private final ByteCounter writeCounter;
+	private final TunnelMetrics metrics;
+	private final ConnectionRegistry connectionRegistry;
+
+	public TunnelContext(ByteCounter readCounter, ByteCounter writeCounter, TunnelMetrics metrics,
+			ConnectionRegistry connectionRegistry) {
+		this.readCounter = Objects.requireNonNull(readCounter);
+		this.writeCounter = Objects.requireNonNull(writeCounter);
+		this.metrics = metrics;
+		this.connectionRegistry = connectionRegistry;
+	}
+
+	public ByteCounter getReadCounter() {
+		return readCounter;
+	}
+
+	public ByteCounter getWriteCounter() {
+		return writeCounter;
+	}
+
+	// null when the tunnel records no latencies
+	public TunnelMetrics getMetrics() {
+		return metrics;
+	}
+
+	// null when connection tracking is off
+	public ConnectionRegistry getConnectionRegistry() {
+		return connectionRegistry;
+	}
+
+}
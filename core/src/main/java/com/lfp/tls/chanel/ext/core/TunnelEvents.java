@@ -0,0 +1,244 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.net.SocketAddress;
+import java.nio.channels.Channel;
+
+import javax.net.ssl.SSLSession;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/*
+ * flight recorder events of the tunnel lifecycle. callers create an event and check isEnabled before filling it in,
+ * without a recording the jit removes the allocation and the check is a constant. stack traces are off, they would
+ * only show the i/o thread
+ */
+public final class TunnelEvents {
+
+	private static final String CATEGORY = "TLS Channel Ext";
+
+	static final String OUTCOME_COMPLETE = "complete";
+	static final String OUTCOME_FAILED = "failed";
+	static final String OUTCOME_TIMEOUT = "timeout";
+	// a hedged or failover connect closed because another one won
+	static final String OUTCOME_ABANDONED = "abandoned";
+
+	private TunnelEvents() {
+	}
+
+	@Name("com.lfp.tls.chanel.ext.ConnectionAccepted")
+	@Label("Connection Accepted")
+	@Category({ CATEGORY, "Tunnel" })
+	@StackTrace(false)
+	static class ConnectionAccepted extends Event {
+
+		@Label("Client Address")
+		String clientAddress;
+	}
+
+	@Name("com.lfp.tls.chanel.ext.Handshake")
+	@Label("TLS Handshake")
+	@Description("From the tls channel construction until the handshake completed, failed or timed out")
+	@Category({ CATEGORY, "Tunnel" })
+	@StackTrace(false)
+	static class Handshake extends Event {
+
+		@Label("Client Address")
+		String clientAddress;
+
+		@Label("Server Name")
+		String serverName;
+
+		@Label("Outcome")
+		String outcome;
+
+		@Label("Protocol")
+		String protocol;
+
+		@Label("Cipher Suite")
+		String cipherSuite;
+
+		@Label("Failure")
+		String failure;
+	}
+
+	@Name("com.lfp.tls.chanel.ext.BackEndConnect")
+	@Label("BackEnd Connect")
+	@Description("One connect attempt including host resolution, a hedge or failover adds another")
+	@Category({ CATEGORY, "Tunnel" })
+	@StackTrace(false)
+	static class BackEndConnect extends Event {
+
+		@Label("Client Address")
+		String clientAddress;
+
+		@Label("BackEnd Address")
+		String backEndAddress;
+
+		@Label("Outcome")
+		String outcome;
+
+		@Label("Failure")
+		String failure;
+	}
+
+	@Name("com.lfp.tls.chanel.ext.TunnelClosed")
+	@Label("Tunnel Closed")
+	@Description("From the first frontEnd read until the tunnel closed, byte totals are -1 without a registry")
+	@Category({ CATEGORY, "Tunnel" })
+	@StackTrace(false)
+	static class TunnelClosed extends Event {
+
+		@Label("Client Address")
+		String clientAddress;
+
+		@Label("Server Name")
+		String serverName;
+
+		@Label("BackEnd Address")
+		String backEndAddress;
+
+		@Label("FrontEnd Bytes")
+		@Description("Read from the client")
+		@DataAmount
+		long frontEndBytes;
+
+		@Label("BackEnd Bytes")
+		@Description("Read from the backEnd")
+		@DataAmount
+		long backEndBytes;
+	}
+
+	@Name("com.lfp.tls.chanel.ext.RelayStall")
+	@Label("Relay Stall")
+	@Description("A write to the peer that took longer than the tunneler's relay stall threshold")
+	@Category({ CATEGORY, "Tunnel" })
+	@StackTrace(false)
+	static class RelayStall extends Event {
+
+		@Label("Relay")
+		@Description("The side the bytes were read from")
+		String relay;
+
+		@Label("Target Address")
+		String targetAddress;
+
+		@Label("Write Duration")
+		@Timespan(Timespan.NANOSECONDS)
+		long writeDuration;
+
+		@Label("Bytes")
+		@DataAmount
+		long byteCount;
+	}
+
+	static void connectionAccepted(Channel channel) {
+		var event = new ConnectionAccepted();
+		if (!event.isEnabled())
+			return;
+		event.clientAddress = toString(TunnelUtils.getRemoteAddress(channel));
+		event.commit();
+	}
+
+	// null without a recording. addresses are taken up front, the channel may be closed when the event ends
+	static Handshake beginHandshake(Channel underlying) {
+		var event = new Handshake();
+		if (!event.isEnabled())
+			return null;
+		event.clientAddress = toString(TunnelUtils.getRemoteAddress(underlying));
+		event.begin();
+		return event;
+	}
+
+	static void endHandshake(Handshake event, String serverName, String outcome, SSLSession sslSession,
+			Throwable failure) {
+		event.end();
+		if (!event.shouldCommit())
+			return;
+		event.serverName = serverName;
+		event.outcome = outcome;
+		if (sslSession != null) {
+			event.protocol = sslSession.getProtocol();
+			event.cipherSuite = sslSession.getCipherSuite();
+		}
+		event.failure = toString(failure);
+		event.commit();
+	}
+
+	// null without a recording
+	static BackEndConnect beginBackEndConnect(Channel frontEnd) {
+		var event = new BackEndConnect();
+		if (!event.isEnabled())
+			return null;
+		event.clientAddress = toString(TunnelUtils.getRemoteAddress(frontEnd));
+		event.begin();
+		return event;
+	}
+
+	static void endBackEndConnect(BackEndConnect event, SocketAddress backEndAddress, String outcome,
+			Throwable failure) {
+		event.end();
+		if (!event.shouldCommit())
+			return;
+		event.backEndAddress = toString(backEndAddress);
+		event.outcome = outcome;
+		event.failure = toString(failure);
+		event.commit();
+	}
+
+	// null without a recording
+	static TunnelClosed beginTunnel(Channel frontEnd) {
+		var event = new TunnelClosed();
+		if (!event.isEnabled())
+			return null;
+		event.clientAddress = toString(TunnelUtils.getRemoteAddress(frontEnd));
+		event.begin();
+		return event;
+	}
+
+	static void endTunnel(TunnelClosed event, ConnectionRegistry.Connection connection) {
+		event.end();
+		if (!event.shouldCommit())
+			return;
+		if (connection == null) {
+			event.frontEndBytes = -1;
+			event.backEndBytes = -1;
+		} else {
+			var snapshot = connection.snapshot();
+			event.serverName = snapshot.getServerName();
+			event.backEndAddress = toString(snapshot.getBackEndAddress());
+			event.frontEndBytes = snapshot.getFrontEndByteCount();
+			event.backEndBytes = snapshot.getBackEndByteCount();
+		}
+		event.commit();
+	}
+
+	// checked per write, so the relay only reads the clock while a recording wants the event
+	static boolean isRelayStallEnabled() {
+		return new RelayStall().isEnabled();
+	}
+
+	static void relayStall(String relay, Channel target, long writeNanos, long thresholdNanos, long byteCount) {
+		if (writeNanos < thresholdNanos)
+			return;
+		var event = new RelayStall();
+		if (!event.shouldCommit())
+			return;
+		event.relay = relay;
+		event.targetAddress = toString(TunnelUtils.getRemoteAddress(target));
+		event.writeDuration = writeNanos;
+		event.byteCount = byteCount;
+		event.commit();
+	}
+
+	private static String toString(Object value) {
+		return value == null ? null : value.toString();
+	}
+
+}
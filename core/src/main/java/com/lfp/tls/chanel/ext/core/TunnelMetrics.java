@@ -0,0 +1,215 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * latency histograms of one listener, one per phase of a tunnel and optionally per sni server name. recording is
+ * an atomic increment into a fixed bucket array. registered histograms show up over jmx as
+ * com.lfp.tls.chanel.ext:type=TunnelLatency,listener=...,phase=...[,serverName=...]
+ */
+public class TunnelMetrics {
+	private static final Class<?> THIS_CLASS = new Object() {
+	}.getClass().getEnclosingClass();
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
+	private static final String JMX_DOMAIN = "com.lfp.tls.chanel.ext";
+	// server names past the limit share one set of histograms
+	private static final String OTHER_SERVER_NAME = "(other)";
+	// a server name first seen on an i/o thread is registered here, the mbean server may be slow
+	private static final ExecutorService REGISTRATION_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+		var thread = new Thread(r, "tunnel-metrics-registration");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public static enum Phase {
+		// from the accepted socket to the completed tls handshake
+		HANDSHAKE("handshake"),
+		// from createBackEndClient until the backEnd is connected, including resolution and failover
+		BACKEND_CONNECT("backEndConnect"),
+		// from the frontEnd read until the client sent its first bytes
+		FRONTEND_FIRST_BYTE("frontEndFirstByte"),
+		// from the backEnd connect until the backEnd sent its first bytes
+		BACKEND_FIRST_BYTE("backEndFirstByte"),
+		// from the frontEnd read until the tunnel closed
+		LIFETIME("lifetime");
+
+		private final String name;
+
+		private Phase(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+	private final String listener;
+	private final String serverName;
+	private final int serverNameLimit;
+	private final Map<String, TunnelMetrics> serverNameMetrics;
+	// held while talking to the mbean server, never on the recording path
+	private final Object registrationLock = new Object();
+	private volatile TunnelMetrics otherMetrics;
+	private volatile boolean registered;
+
+	// a server name limit of zero or less records per listener only
+	public TunnelMetrics(String listener, int serverNameLimit) {
+		this(listener, null, serverNameLimit);
+	}
+
+	private TunnelMetrics(String listener, String serverName, int serverNameLimit) {
+		this.listener = listener;
+		this.serverName = serverName;
+		this.serverNameLimit = serverNameLimit;
+		this.serverNameMetrics = serverNameLimit > 0 ? new ConcurrentHashMap<>() : null;
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i] = new LatencyHistogram();
+	}
+
+	public String getListener() {
+		return listener;
+	}
+
+	// null for the listener wide metrics
+	public String getServerName() {
+		return serverName;
+	}
+
+	public LatencyHistogram getHistogram(Phase phase) {
+		return histograms[phase.ordinal()];
+	}
+
+	public boolean isServerNameTracking() {
+		return serverNameMetrics != null;
+	}
+
+	public Map<String, TunnelMetrics> getServerNameMetrics() {
+		if (serverNameMetrics == null)
+			return Map.of();
+		return Collections.unmodifiableMap(serverNameMetrics);
+	}
+
+	// a null server name records for the listener only
+	public void record(Phase phase, long nanos, String serverName) {
+		histograms[phase.ordinal()].record(nanos);
+		if (serverName == null || serverNameMetrics == null)
+			return;
+		getServerNameMetrics(serverName).histograms[phase.ordinal()].record(nanos);
+	}
+
+	public void registerMBeans() {
+		synchronized (registrationLock) {
+			if (registered)
+				return;
+			registered = true;
+			register(this);
+			if (serverNameMetrics != null)
+				serverNameMetrics.values().forEach(TunnelMetrics::register);
+		}
+	}
+
+	public void unregisterMBeans() {
+		synchronized (registrationLock) {
+			if (!registered)
+				return;
+			registered = false;
+			unregister(this);
+			if (serverNameMetrics != null)
+				serverNameMetrics.values().forEach(TunnelMetrics::unregister);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TunnelMetrics [listener=%s, serverName=%s, handshake=%s, backEndConnect=%s]", listener,
+				serverName, getHistogram(Phase.HANDSHAKE), getHistogram(Phase.BACKEND_CONNECT));
+	}
+
+	private TunnelMetrics getServerNameMetrics(String serverName) {
+		var metrics = serverNameMetrics.get(serverName);
+		if (metrics != null)
+			return metrics;
+		// past the limit the names share one entry without taking the lock again
+		if (serverNameMetrics.size() >= serverNameLimit) {
+			metrics = otherMetrics;
+			if (metrics != null)
+				return metrics;
+		}
+		synchronized (this) {
+			metrics = serverNameMetrics.get(serverName);
+			if (metrics != null)
+				return metrics;
+			if (serverNameMetrics.size() < serverNameLimit) {
+				metrics = new TunnelMetrics(listener, serverName, 0);
+				serverNameMetrics.put(serverName, metrics);
+			} else {
+				if (otherMetrics != null)
+					return otherMetrics;
+				metrics = new TunnelMetrics(listener, OTHER_SERVER_NAME, 0);
+				otherMetrics = metrics;
+				serverNameMetrics.put(OTHER_SERVER_NAME, metrics);
+			}
+			if (registered)
+				registerAsync(metrics);
+			return metrics;
+		}
+	}
+
+	// skipped when the listener was unregistered in the meantime
+	private void registerAsync(TunnelMetrics metrics) {
+		REGISTRATION_EXECUTOR.execute(() -> {
+			synchronized (registrationLock) {
+				if (registered)
+					register(metrics);
+			}
+		});
+	}
+
+	private static void register(TunnelMetrics metrics) {
+		var server = ManagementFactory.getPlatformMBeanServer();
+		for (var phase : PHASES) {
+			try {
+				var objectName = objectName(metrics, phase);
+				if (!server.isRegistered(objectName))
+					server.registerMBean(metrics.getHistogram(phase), objectName);
+			} catch (JMException | RuntimeException e) {
+				logger.warn("tunnel metrics registration error. listener:{} phase:{}", metrics.listener, phase, e);
+			}
+		}
+	}
+
+	private static void unregister(TunnelMetrics metrics) {
+		var server = ManagementFactory.getPlatformMBeanServer();
+		for (var phase : PHASES) {
+			try {
+				var objectName = objectName(metrics, phase);
+				if (server.isRegistered(objectName))
+					server.unregisterMBean(objectName);
+			} catch (JMException | RuntimeException e) {
+				logger.debug("tunnel metrics unregistration error. listener:{} phase:{}", metrics.listener, phase,
+						e);
+			}
+		}
+	}
+
+	private static ObjectName objectName(TunnelMetrics metrics, Phase phase) throws JMException {
+		var name = new StringBuilder(JMX_DOMAIN).append(":type=TunnelLatency,listener=")
+				.append(ObjectName.quote(metrics.listener)).append(",phase=").append(phase.getName());
+		if (metrics.serverName != null)
+			name.append(",serverName=").append(ObjectName.quote(metrics.serverName));
+		return new ObjectName(name.toString());
+	}
+
+}
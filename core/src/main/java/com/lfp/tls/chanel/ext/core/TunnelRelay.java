@@ -0,0 +1,23 @@
+package com.lfp.tls.chanel.ext.core;
+
+import java.nio.channels.CompletionHandler;
+import java.time.Duration;
+import java.util.function.LongConsumer;
+
+public interface TunnelRelay {
+
+	void start();
+
+	// takes over a read that was issued on the source before the relay existed
+	CompletionHandler<Integer, Void> adoptPendingRead();
+
+	// runs once, the first time the relay terminates
+	void setTerminationListener(Runnable terminationListener);
+
+	// receives the byte count of every source read, on the thread that completed it
+	void setReadListener(LongConsumer readListener);
+
+	// a write to the target slower than the threshold emits a relay stall flight recorder event, null disables
+	void setStallThreshold(Duration stallThreshold);
+
+}
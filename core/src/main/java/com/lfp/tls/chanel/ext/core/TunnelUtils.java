@@ -3,11 +3,16 @@ package com.lfp.tls.chanel.ext.core;
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousByteChannel;
 import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.Channel;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NetworkChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
@@ -19,6 +24,7 @@ import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -122,6 +128,45 @@ public class TunnelUtils {
 		return result;
 	}
 
+	// a zero linger close sends a reset instead of a graceful shutdown
+	public static boolean resetQuietly(NetworkChannel channel) {
+		if (channel == null)
+			return false;
+		try {
+			channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+		} catch (IOException | UnsupportedOperationException e) {
+			logger.trace("error during linger reset", e);
+		}
+		return closeQuietly(channel);
+	}
+
+	// unwraps the tunnel channel types down to their socket, null when unknown or closed
+	public static SocketAddress getRemoteAddress(Channel channel) {
+		if (channel instanceof ClientHelloChannel)
+			channel = ((ClientHelloChannel) channel).getDelegate();
+		else if (channel instanceof AsynchronousTlsChannelExt)
+			channel = ((AsynchronousTlsChannelExt) channel).getTlsChannel().getUnderlying();
+		try {
+			if (channel instanceof SocketChannel)
+				return ((SocketChannel) channel).getRemoteAddress();
+			if (channel instanceof AsynchronousSocketChannel)
+				return ((AsynchronousSocketChannel) channel).getRemoteAddress();
+		} catch (IOException e) {
+			logger.trace("error during remote address lookup", e);
+		}
+		return null;
+	}
+
+	public static Closeable releaseOnce(BufferPool bufferPool, ByteBuffer buffer) {
+		Objects.requireNonNull(bufferPool);
+		Objects.requireNonNull(buffer);
+		var released = new AtomicBoolean();
+		return () -> {
+			if (released.compareAndSet(false, true))
+				bufferPool.release(buffer);
+		};
+	}
+
 	public static boolean closeAndLogOnError(String message, Throwable error, Closeable... closeables) {
 		if (error == null)
 			return false;
@@ -6,6 +6,7 @@ import java.nio.channels.AsynchronousByteChannel;
 import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.NetworkChannel;
 import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
@@ -27,7 +28,7 @@ public abstract class Tunneler extends AbstractTunneler<AsynchronousServerSocket
 	protected AsynchronousServerSocketChannel serverBind(SocketAddress address) throws IOException {
 		var serverSocket = AsynchronousServerSocketChannel.open(this.asynchronousChannelGroup);
 		try {
-			serverSocket.bind(address);
+			serverSocket.bind(address, getAcceptBacklog());
 		} catch (IOException t) {
 			serverSocket.close();
 			throw t;
@@ -35,6 +36,20 @@ public abstract class Tunneler extends AbstractTunneler<AsynchronousServerSocket
 		return serverSocket;
 	}
 
+	@Override
+	protected AsynchronousSocketChannel openBackEndClient() throws IOException {
+		// same group as the accepted channel so completions are dispatched without a thread hand-off
+		return AsynchronousSocketChannel.open(this.asynchronousChannelGroup);
+	}
+
+	@Override
+	protected void rejectFrontEnd(AsynchronousByteChannel byteChannel) {
+		if (byteChannel instanceof NetworkChannel)
+			TunnelUtils.resetQuietly((NetworkChannel) byteChannel);
+		else
+			super.rejectFrontEnd(byteChannel);
+	}
+
 	@Override
 	protected AsynchronousByteChannel createAsynchronousByteChannel(AsynchronousServerSocketChannel serverBind)
 			throws IOException {
@@ -45,6 +60,12 @@ public abstract class Tunneler extends AbstractTunneler<AsynchronousServerSocket
 			throw (((Object) e) instanceof java.lang.RuntimeException) ? java.lang.RuntimeException.class.cast(e)
 					: new RuntimeException(e);
 		}
+		try {
+			configureSocket(rawChannel);
+		} catch (IOException | RuntimeException e) {
+			TunnelUtils.resetQuietly(rawChannel);
+			throw e;
+		}
 		return rawChannel;
 	}
 
@@ -0,0 +1,94 @@
+package test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLContext;
+
+import com.lfp.tls.chanel.ext.core.AdmissionController;
+import com.lfp.tls.chanel.ext.core.AsynchronousTlsChannelExt;
+import com.lfp.tls.chanel.ext.core.TlsTunneler;
+import com.lfp.tls.chanel.ext.core.TunnelContext;
+import com.lfp.tls.chanel.ext.core.TunnelUtils;
+
+public class AcceptBenchmark {
+
+	// usage: AcceptBenchmark [seconds] [clientThreads] [acceptorThreads] [backlog]
+	public static void main(String[] args) throws Exception {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int clientThreads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int acceptorThreads = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		int backlog = args.length > 3 ? Integer.parseInt(args[3]) : 4096;
+		var sslContext = TestServices.createSSLContext();
+		var setupCount = new LongAdder();
+		var tunneler = new TlsTunneler(Duration.ofSeconds(1)) {
+
+			@Override
+			protected Optional<SSLContext> getSSLContext(Optional<SNIServerName> sniServerNameOp) {
+				return Optional.of(sslContext);
+			}
+
+			@Override
+			protected SocketAddress getBackEndSocketAddress(Optional<String> sniServerName) {
+				return null;
+			}
+
+			@Override
+			protected void frontEndRead(AsynchronousTlsChannelExt byteChannel, TunnelContext context,
+					AdmissionController admissionController) {
+				// the tls channel is fully constructed at this point, measure accept plus setup only
+				setupCount.increment();
+				TunnelUtils.closeQuietly(byteChannel);
+			}
+		};
+		tunneler.setAcceptorThreads(acceptorThreads);
+		tunneler.setAcceptBacklog(backlog);
+		var address = new InetSocketAddress("localhost", findFreePort());
+		var tunnel = tunneler.start(address);
+		Thread.sleep(500);
+		var connectCount = new LongAdder();
+		var connectErrorCount = new LongAdder();
+		long deadline = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+		var clients = new ArrayList<Thread>();
+		for (int i = 0; i < clientThreads; i++) {
+			var thread = new Thread(() -> {
+				while (System.nanoTime() < deadline) {
+					try (var socket = new Socket()) {
+						// reset on close so the client does not run out of ports in TIME_WAIT
+						socket.setSoLinger(true, 0);
+						socket.connect(address);
+						connectCount.increment();
+					} catch (IOException e) {
+						connectErrorCount.increment();
+					}
+				}
+			});
+			thread.start();
+			clients.add(thread);
+		}
+		for (var thread : clients)
+			thread.join();
+		Thread.sleep(500);
+		tunnel.cancel(true);
+		System.out.println(String.format(
+				"seconds:%s clientThreads:%s acceptorThreads:%s backlog:%s connects:%s connectErrors:%s setups:%s acceptsPerSecond:%.0f",
+				seconds, clientThreads, acceptorThreads, backlog, connectCount.sum(), connectErrorCount.sum(),
+				setupCount.sum(), setupCount.sum() / (double) seconds));
+		System.exit(0);
+	}
+
+	private static int findFreePort() throws IOException {
+		try (var serverSocket = new ServerSocket(0)) {
+			return serverSocket.getLocalPort();
+		}
+	}
+
+}
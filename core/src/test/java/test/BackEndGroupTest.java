@@ -0,0 +1,140 @@
+package test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lfp.tls.chanel.ext.core.BackEndGroup;
+
+public class BackEndGroupTest {
+
+	private static final int EJECTION_THRESHOLD = 3;
+	private static final Duration EJECTION_COOLDOWN = Duration.ofMillis(200);
+
+	public static void main(String[] args) throws Exception {
+		for (var strategy : BackEndGroup.Strategy.values()) {
+			checkEjection(strategy);
+			checkProbe(strategy);
+			checkAllEjected(strategy);
+		}
+		System.out.println("strategies:" + BackEndGroup.Strategy.values().length + " ok");
+	}
+
+	// an ejected backend gets no tunnels while the others can take them
+	private static void checkEjection(BackEndGroup.Strategy strategy) {
+		var group = createGroup(strategy, 3);
+		var ejected = group.getBackEnds().get(0);
+		for (int i = 0; i < EJECTION_THRESHOLD - 1; i++)
+			ejected.connectFailed();
+		check(!ejected.isEjected(), strategy, "ejected below the threshold");
+		// a success in between starts the count over
+		ejected.connectSucceeded(1_000_000);
+		ejected.connectFailed();
+		check(!ejected.isEjected(), strategy, "failures before a success counted");
+		fail(ejected, EJECTION_THRESHOLD);
+		check(ejected.isEjected() && ejected.getEjectedCount() == 1, strategy, "not ejected");
+		for (int i = 0; i < 1000; i++) {
+			var backEnd = group.select(clientAddress(i));
+			check(backEnd != ejected, strategy, "ejected backend selected");
+			backEnd.release();
+		}
+	}
+
+	// past the cool down an ejected backend takes one probe, its outcome reinstates or ejects it again
+	private static void checkProbe(BackEndGroup.Strategy strategy) throws InterruptedException {
+		var group = createGroup(strategy, 3);
+		var ejected = group.getBackEnds().get(0);
+		fail(ejected, EJECTION_THRESHOLD);
+		Thread.sleep(EJECTION_COOLDOWN.toMillis() + 50);
+		var held = new ArrayList<BackEndGroup.BackEnd>();
+		int probes = 0;
+		// consistent hashing only offers the probe to clients hashed onto the ejected backend, so ask many
+		for (int i = 0; i < 1000; i++) {
+			var backEnd = group.select(clientAddress(i));
+			held.add(backEnd);
+			if (backEnd == ejected)
+				probes++;
+		}
+		check(probes == 1, strategy, "probes:" + probes);
+		release(held);
+		// a failed probe ejects again for another cool down
+		ejected.connectFailed();
+		check(ejected.isEjected() && ejected.getEjectedCount() == 1, strategy, "failed probe not ejected");
+		check(countSelected(group, ejected) == 0, strategy, "selected after a failed probe");
+		Thread.sleep(EJECTION_COOLDOWN.toMillis() + 50);
+		check(countSelected(group, ejected) == 1, strategy, "no second probe");
+		// a successful probe puts it back into rotation
+		ejected.connectSucceeded(1_000_000);
+		check(!ejected.isEjected(), strategy, "still ejected after a successful probe");
+		check(countSelected(group, ejected) > 1, strategy, "not back in rotation");
+	}
+
+	// with every backend ejected the group keeps selecting instead of failing every tunnel
+	private static void checkAllEjected(BackEndGroup.Strategy strategy) {
+		var group = createGroup(strategy, 2);
+		for (var backEnd : group.getBackEnds())
+			fail(backEnd, EJECTION_THRESHOLD);
+		var first = group.getBackEnds().get(0);
+		for (int i = 0; i < 100; i++) {
+			var backEnd = group.select(clientAddress(i));
+			check(backEnd != null, strategy, "nothing selected with every backend ejected");
+			// a failover still avoids the backend that just failed
+			var failover = group.select(clientAddress(i), backEnd);
+			check(failover != null && failover != backEnd, strategy, "failover to the excluded backend");
+			backEnd.release();
+			failover.release();
+		}
+		var single = createGroup(strategy, 1);
+		fail(single.getBackEnds().get(0), EJECTION_THRESHOLD);
+		var only = single.select(clientAddress(0));
+		check(only != null, strategy, "single ejected backend not selected");
+		check(single.select(clientAddress(0), only) == null, strategy, "excluded the only backend");
+		only.release();
+		check(first.getActiveCount() == 0, strategy, "activeCount:" + first.getActiveCount());
+	}
+
+	private static BackEndGroup createGroup(BackEndGroup.Strategy strategy, int size) {
+		var addresses = new ArrayList<InetSocketAddress>();
+		for (int i = 0; i < size; i++)
+			addresses.add(InetSocketAddress.createUnresolved("backend-" + i, 443));
+		var group = new BackEndGroup(strategy, addresses);
+		group.setEjectionThreshold(EJECTION_THRESHOLD);
+		group.setEjectionCooldown(EJECTION_COOLDOWN);
+		// an unmeasured backend looks cheapest to power of two choices, start them all from the same latency
+		for (var backEnd : group.getBackEnds())
+			backEnd.connectSucceeded(1_000_000);
+		return group;
+	}
+
+	private static int countSelected(BackEndGroup group, BackEndGroup.BackEnd target) {
+		var held = new ArrayList<BackEndGroup.BackEnd>();
+		int count = 0;
+		for (int i = 0; i < 1000; i++) {
+			var backEnd = group.select(clientAddress(i));
+			held.add(backEnd);
+			if (backEnd == target)
+				count++;
+		}
+		release(held);
+		return count;
+	}
+
+	private static void fail(BackEndGroup.BackEnd backEnd, int times) {
+		for (int i = 0; i < times; i++)
+			backEnd.connectFailed();
+	}
+
+	private static void release(List<BackEndGroup.BackEnd> backEnds) {
+		backEnds.forEach(BackEndGroup.BackEnd::release);
+	}
+
+	private static InetSocketAddress clientAddress(int index) {
+		return new InetSocketAddress(String.format("10.0.%s.%s", index / 250, index % 250 + 1), 40_000 + index);
+	}
+
+	private static void check(boolean condition, BackEndGroup.Strategy strategy, String message) {
+		TestChecks.check(condition, String.format("%s strategy:%s", message, strategy));
+	}
+
+}
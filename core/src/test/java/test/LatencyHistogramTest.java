@@ -0,0 +1,115 @@
+package test;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.lfp.tls.chanel.ext.core.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+	// 32 sub buckets per power of two
+	private static final double MAX_RELATIVE_ERROR = 1.0 / 32;
+	// far above every tested value, so that the percentile is not capped at the max
+	private static final long CEILING_NANOS = Long.MAX_VALUE / 4;
+
+	public static void main(String[] args) {
+		checkEmpty();
+		checkSmallValuesExact();
+		checkBucketBounds();
+		checkPercentileRank();
+		checkDecay();
+		System.out.println("ok");
+	}
+
+	private static void checkEmpty() {
+		var histogram = new LatencyHistogram();
+		TestChecks.check(histogram.getValueAtPercentile(99).isZero(), "empty percentile");
+		TestChecks.check(histogram.getMean().isZero() && histogram.getMax().isZero(), "empty mean or max");
+		// a negative latency counts as zero rather than failing the recording thread
+		histogram.record(-5);
+		TestChecks.check(histogram.getCount() == 1 && histogram.getMax().isZero(), "negative value");
+	}
+
+	// below 32 every value has a bucket of its own
+	private static void checkSmallValuesExact() {
+		var histogram = new LatencyHistogram();
+		for (int value = 0; value < 32; value++)
+			histogram.record(value);
+		histogram.record(CEILING_NANOS);
+		for (int value = 0; value < 32; value++) {
+			// the rank of value is value + 1 out of 33, asked for halfway into it
+			double percentile = (value + 0.5) * 100 / 33;
+			TestChecks.checkEquals(value, histogram.getValueAtPercentile(percentile).toNanos(), "small value");
+		}
+	}
+
+	// a value reports the upper bound of its bucket, within the relative error, and the next value starts a new one
+	private static void checkBucketBounds() {
+		var random = ThreadLocalRandom.current();
+		for (int shift = 5; shift < 50; shift++) {
+			long powerOfTwo = 1L << shift;
+			for (long value : new long[] { powerOfTwo - 1, powerOfTwo, powerOfTwo + 1,
+					powerOfTwo + random.nextLong(powerOfTwo) }) {
+				long upper = upperBound(value);
+				TestChecks.check(upper >= value, "upper bound below the value:" + value);
+				TestChecks.check(upper - value <= value * MAX_RELATIVE_ERROR,
+						String.format("bucket too wide. value:%s upper:%s", value, upper));
+				TestChecks.checkEquals(upper, upperBound(upper), "upper bound in another bucket");
+				TestChecks.check(upperBound(upper + 1) > upper, "next value in the same bucket:" + upper);
+			}
+		}
+		// the max caps the reported bound, a single value reads back exactly
+		var histogram = new LatencyHistogram();
+		histogram.record(1_000_003);
+		TestChecks.checkEquals(1_000_003, histogram.getValueAtPercentile(50).toNanos(), "capped at the max");
+		histogram.record(Long.MAX_VALUE);
+		TestChecks.checkEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100).toNanos(), "largest value");
+	}
+
+	// the percentile is the value at rank ceil(percentile / 100 * count)
+	private static void checkPercentileRank() {
+		var histogram = new LatencyHistogram();
+		for (int millis = 100; millis >= 1; millis--)
+			histogram.record(Duration.ofMillis(millis));
+		checkNear(Duration.ofMillis(1), histogram.getValueAtPercentile(0), "p0");
+		checkNear(Duration.ofMillis(1), histogram.getValueAtPercentile(1), "p1");
+		checkNear(Duration.ofMillis(2), histogram.getValueAtPercentile(1.5), "p1.5");
+		checkNear(Duration.ofMillis(50), histogram.getValueAtPercentile(50), "p50");
+		checkNear(Duration.ofMillis(51), histogram.getValueAtPercentile(50.01), "p50.01");
+		checkNear(Duration.ofMillis(99), histogram.getValueAtPercentile(99), "p99");
+		TestChecks.checkEquals(Duration.ofMillis(100).toNanos(), histogram.getValueAtPercentile(100).toNanos(), "p100");
+		TestChecks.checkEquals(Duration.ofMillis(100).toNanos(), histogram.getValueAtPercentile(250).toNanos(), "p250");
+		TestChecks.checkEquals(Duration.ofMillis(100).toNanos(), histogram.getMax().toNanos(), "max");
+		TestChecks.checkEquals(Duration.ofMillis(50).toNanos() + 500_000, histogram.getMean().toNanos(), "mean");
+	}
+
+	private static void checkDecay() {
+		var histogram = new LatencyHistogram();
+		for (int i = 0; i < 8192; i++)
+			histogram.record(Duration.ofMillis(i % 2 == 0 ? 1 : 3));
+		TestChecks.check(!histogram.decay(8193), "decayed below the threshold");
+		TestChecks.check(histogram.decay(8192), "not decayed at the threshold");
+		TestChecks.checkEquals(4096, histogram.getCount(), "count after decay");
+		TestChecks.checkEquals(Duration.ofMillis(2).toNanos(), histogram.getMean().toNanos(), "mean after decay");
+		checkNear(Duration.ofMillis(1), histogram.getValueAtPercentile(50), "p50 after decay");
+		TestChecks.checkEquals(Duration.ofMillis(3).toNanos(), histogram.getMax().toNanos(), "max after decay");
+		// a threshold that was reached once does not halve again until it is reached again
+		TestChecks.check(!histogram.decay(8192), "decayed twice");
+	}
+
+	private static long upperBound(long value) {
+		var histogram = new LatencyHistogram();
+		histogram.record(value);
+		histogram.record(CEILING_NANOS);
+		return histogram.getValueAtPercentile(50).toNanos();
+	}
+
+	private static void checkNear(Duration expected, Duration actual, String message) {
+		long expectedNanos = expected.toNanos();
+		long actualNanos = actual.toNanos();
+		TestChecks.check(
+				actualNanos >= expectedNanos && actualNanos - expectedNanos <= expectedNanos * MAX_RELATIVE_ERROR,
+				String.format("%s expected:%s actual:%s", message, expected, actual));
+	}
+
+}
@@ -0,0 +1,194 @@
+package test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lfp.tls.chanel.ext.core.Tunneler;
+
+public class RelayAllocationTest {
+
+	private static final int PACKET_SIZE = 64;
+	private static final int WARMUP_PACKETS = 200_000;
+	private static final int MEASURED_PACKETS = 500_000;
+	// the jdk allocates a little per async operation, so only the difference to a bare relay counts
+	private static final long MAX_OVERHEAD_BYTES_PER_CHUNK = 8;
+
+	public static void main(String[] args) throws Exception {
+		try (var echoServer = startEchoServer()) {
+			var backEndAddress = new InetSocketAddress("localhost", echoServer.getLocalPort());
+			long controlBytesPerChunk = measure("control-io-", group -> {
+				var server = AsynchronousServerSocketChannel.open(group).bind(new InetSocketAddress("localhost", 0));
+				server.accept(null, new CompletionHandler<AsynchronousSocketChannel, Object>() {
+
+					@Override
+					public void completed(AsynchronousSocketChannel frontEnd, Object attachment) {
+						try {
+							var backEnd = AsynchronousSocketChannel.open(group);
+							backEnd.connect(backEndAddress).get();
+							new ControlRelay(frontEnd, backEnd).read();
+							new ControlRelay(backEnd, frontEnd).read();
+						} catch (Exception e) {
+							throw new RuntimeException(e);
+						}
+					}
+
+					@Override
+					public void failed(Throwable exc, Object attachment) {
+					}
+				});
+				return (InetSocketAddress) server.getLocalAddress();
+			});
+			long tunnelerBytesPerChunk = measure("tunnel-io-", group -> {
+				Tunneler tunneler = new Tunneler(group) {
+
+					@Override
+					protected SocketAddress getBackEndSocketAddress(AsynchronousByteChannel byteChannel) {
+						return backEndAddress;
+					}
+				};
+				var address = new InetSocketAddress("localhost", findFreePort());
+				tunneler.start(address);
+				Thread.sleep(500);
+				return address;
+			});
+			long overhead = tunnelerBytesPerChunk - controlBytesPerChunk;
+			System.out.println(String.format("controlBytesPerChunk:%s tunnelerBytesPerChunk:%s overhead:%s",
+					controlBytesPerChunk, tunnelerBytesPerChunk, overhead));
+			if (overhead > MAX_OVERHEAD_BYTES_PER_CHUNK)
+				throw new IllegalStateException("relay allocates per chunk. overheadBytesPerChunk:" + overhead);
+		}
+		System.exit(0);
+	}
+
+	private static long measure(String threadPrefix, ProxyFactory proxyFactory) throws Exception {
+		var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		var threadIndex = new AtomicInteger();
+		var group = AsynchronousChannelGroup.withFixedThreadPool(2, r -> {
+			var thread = new Thread(r, threadPrefix + threadIndex.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			var address = proxyFactory.start(group);
+			try (var socket = new Socket(address.getHostString(), address.getPort())) {
+				socket.setTcpNoDelay(true);
+				var out = socket.getOutputStream();
+				var in = socket.getInputStream();
+				pingPong(out, in, WARMUP_PACKETS);
+				long allocatedBefore = allocatedBytes(threadMXBean, threadPrefix);
+				pingPong(out, in, MEASURED_PACKETS);
+				long allocated = allocatedBytes(threadMXBean, threadPrefix) - allocatedBefore;
+				// every packet is read and written once in each direction
+				return allocated / (2L * MEASURED_PACKETS);
+			}
+		} finally {
+			group.shutdownNow();
+		}
+	}
+
+	private static void pingPong(OutputStream out, InputStream in, int packets) throws IOException {
+		var packet = new byte[PACKET_SIZE];
+		for (int i = 0; i < packets; i++) {
+			out.write(packet);
+			in.readNBytes(packet, 0, PACKET_SIZE);
+		}
+	}
+
+	private static long allocatedBytes(com.sun.management.ThreadMXBean threadMXBean, String threadPrefix) {
+		long total = 0;
+		for (var threadInfo : threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds())) {
+			if (threadInfo == null || !threadInfo.getThreadName().startsWith(threadPrefix))
+				continue;
+			total += threadMXBean.getThreadAllocatedBytes(threadInfo.getThreadId());
+		}
+		return total;
+	}
+
+	private static ServerSocket startEchoServer() throws IOException {
+		var serverSocket = new ServerSocket(0);
+		var thread = new Thread(() -> {
+			while (!serverSocket.isClosed()) {
+				try {
+					var socket = serverSocket.accept();
+					socket.setTcpNoDelay(true);
+					var echoThread = new Thread(() -> {
+						try (socket) {
+							socket.getInputStream().transferTo(socket.getOutputStream());
+						} catch (IOException e) {
+							// client went away
+						}
+					});
+					echoThread.setDaemon(true);
+					echoThread.start();
+				} catch (IOException e) {
+					// server closed
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return serverSocket;
+	}
+
+	private static int findFreePort() throws IOException {
+		try (var serverSocket = new ServerSocket(0)) {
+			return serverSocket.getLocalPort();
+		}
+	}
+
+	private static interface ProxyFactory {
+
+		InetSocketAddress start(AsynchronousChannelGroup group) throws Exception;
+	}
+
+	private static class ControlRelay implements CompletionHandler<Integer, Void> {
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(10_000);
+		private final AsynchronousSocketChannel source;
+		private final AsynchronousSocketChannel target;
+		private boolean writing;
+
+		public ControlRelay(AsynchronousSocketChannel source, AsynchronousSocketChannel target) {
+			this.source = source;
+			this.target = target;
+		}
+
+		public void read() {
+			writing = false;
+			buffer.clear();
+			source.read(buffer, null, this);
+		}
+
+		@Override
+		public void completed(Integer result, Void attachment) {
+			if (!writing) {
+				if (result < 0)
+					return;
+				writing = true;
+				buffer.flip();
+			}
+			if (buffer.hasRemaining())
+				target.write(buffer, null, this);
+			else
+				read();
+		}
+
+		@Override
+		public void failed(Throwable exc, Void attachment) {
+		}
+	}
+
+}
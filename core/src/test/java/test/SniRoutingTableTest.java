@@ -0,0 +1,63 @@
+package test;
+
+import java.util.Map;
+import java.util.Optional;
+
+import com.lfp.tls.chanel.ext.core.SniRoutingTable;
+
+public class SniRoutingTableTest {
+
+	public static void main(String[] args) {
+		var table = new SniRoutingTable<String>(Map.of(
+				"api.example.com", "exact",
+				"*.example.com", "wildcard",
+				".example.com", "suffix",
+				".eu.example.com", "longerSuffix",
+				"*.Static.Example.ORG.", "mixedCaseWildcard"), "default");
+		// an exact route beats the wildcard covering the same name
+		checkRoute(table, "api.example.com", "exact");
+		// a wildcard matches exactly one label
+		checkRoute(table, "www.example.com", "wildcard");
+		checkRoute(table, "a.b.example.com", "suffix");
+		checkRoute(table, "example.com", "default");
+		// the longest suffix wins, a wildcard still beats it for a single label
+		checkRoute(table, "x.y.eu.example.com", "longerSuffix");
+		checkRoute(table, "eu.example.com", "wildcard");
+		checkRoute(table, "a.b.c.example.com", "suffix");
+		// case and a trailing dot are ignored, on the name and on the pattern
+		checkRoute(table, "API.Example.COM", "exact");
+		checkRoute(table, "api.example.com.", "exact");
+		checkRoute(table, "WWW.EXAMPLE.COM.", "wildcard");
+		checkRoute(table, "img.static.example.org", "mixedCaseWildcard");
+		checkRoute(table, "a.img.static.example.org", "default");
+		// a label only matches whole, not as a substring of a longer one
+		checkRoute(table, "wwwexample.com", "default");
+		checkRoute(table, "api.example.community", "default");
+		checkRoute(table, "notexample.com", "default");
+		// no server name and an empty one take the default route
+		checkRoute(table, null, "default");
+		checkRoute(table, "", "default");
+		checkRoute(table, ".", "default");
+		TestChecks.checkEquals("default", table.route(Optional.empty()), "empty optional");
+		checkRejected(Map.of("*.example.com", "a", "*.EXAMPLE.com.", "b"), "duplicate wildcard");
+		checkRejected(Map.of("a.*.example.com", "a"), "wildcard inside a name");
+		checkRejected(Map.of("a..example.com", "a"), "empty label");
+		var empty = new SniRoutingTable<String>();
+		TestChecks.checkEquals(null, empty.route("www.example.com"), "no default route");
+		System.out.println("routes:" + table.size() + " ok");
+	}
+
+	private static void checkRoute(SniRoutingTable<String> table, String serverName, String expected) {
+		TestChecks.checkEquals(expected, table.route(serverName), "serverName:" + serverName);
+	}
+
+	private static void checkRejected(Map<String, String> routes, String message) {
+		try {
+			new SniRoutingTable<>(routes, null);
+		} catch (IllegalArgumentException e) {
+			return;
+		}
+		throw new IllegalStateException("routes accepted. " + message);
+	}
+
+}
@@ -0,0 +1,22 @@
+package test;
+
+import java.util.Objects;
+
+// shared by the check programs, a failed check throws so that the program exits with the message
+public class TestChecks {
+
+	public static void check(boolean condition, String message) {
+		if (!condition)
+			throw new IllegalStateException(message);
+	}
+
+	public static void checkEquals(Object expected, Object actual, String message) {
+		check(Objects.equals(expected, actual), String.format("%s expected:%s actual:%s", message, expected, actual));
+	}
+
+	// primitives compare by value, a boxed Integer never equals a boxed Long
+	public static void checkEquals(long expected, long actual, String message) {
+		check(expected == actual, String.format("%s expected:%s actual:%s", message, expected, actual));
+	}
+
+}
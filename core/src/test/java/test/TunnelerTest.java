@@ -4,6 +4,8 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.channels.AsynchronousByteChannel;
 
+import com.lfp.tls.chanel.ext.core.ByteCounterDispatcher;
+import com.lfp.tls.chanel.ext.core.ByteCounterDispatcher.OverflowPolicy;
 import com.lfp.tls.chanel.ext.core.Tunneler;
 
 public class TunnelerTest {
@@ -17,6 +19,10 @@ public class TunnelerTest {
 			}
 		};
 		var tunnel = tunneler.start(new InetSocketAddress(8282));
+		// listeners print from the dispatcher thread instead of the io threads
+		var dispatcher = new ByteCounterDispatcher(1024, OverflowPolicy.COALESCE);
+		tunnel.getReadCounter().setDispatcher(dispatcher);
+		tunnel.getWriteCounter().setDispatcher(dispatcher);
 		tunnel.getReadCounter().addListener(evt -> {
 			System.out.println("read:" + evt.getBytesTotal());
 		});
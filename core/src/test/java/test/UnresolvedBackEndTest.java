@@ -0,0 +1,113 @@
+package test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lfp.tls.chanel.ext.core.CachingHostResolver;
+import com.lfp.tls.chanel.ext.core.Tunneler;
+
+// a backEnd returned unresolved is looked up once by the host resolver, on its own threads, and then served cached
+public class UnresolvedBackEndTest {
+
+	private static final String BACKEND_HOST = "backend.test";
+
+	public static void main(String[] args) throws Exception {
+		try (var backEnd = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			startEcho(backEnd);
+			var lookupCount = new AtomicInteger();
+			Set<String> lookupThreads = ConcurrentHashMap.newKeySet();
+			var hostResolver = new CachingHostResolver(host -> {
+				lookupCount.incrementAndGet();
+				lookupThreads.add(Thread.currentThread().getName());
+				TestChecks.checkEquals(BACKEND_HOST, host, "looked up host");
+				return new InetAddress[] { InetAddress.getLoopbackAddress() };
+			}, Duration.ofMinutes(1), Duration.ZERO);
+			var tunneler = new Tunneler() {
+
+				@Override
+				protected SocketAddress getBackEndSocketAddress(AsynchronousByteChannel byteChannel) {
+					return InetSocketAddress.createUnresolved(BACKEND_HOST, backEnd.getLocalPort());
+				}
+			};
+			tunneler.setHostResolver(hostResolver);
+			var address = new InetSocketAddress(InetAddress.getLoopbackAddress(), freePort());
+			var tunnel = tunneler.start(address);
+			try {
+				for (int i = 0; i < 3; i++)
+					checkEcho(address, "message-" + i);
+			} finally {
+				tunnel.cancel(true);
+			}
+			TestChecks.checkEquals(1, lookupCount.get(), "lookups");
+			for (var lookupThread : lookupThreads)
+				TestChecks.check(lookupThread.startsWith("host-resolver-"), "looked up on thread:" + lookupThread);
+			TestChecks.check(hostResolver.getHitCount() >= 2, "cache hits:" + hostResolver.getHitCount());
+			System.out.println(hostResolver + " ok");
+		}
+		System.exit(0);
+	}
+
+	private static void checkEcho(InetSocketAddress address, String message) throws Exception {
+		try (var socket = connect(address)) {
+			socket.setSoTimeout(5_000);
+			var bytes = message.getBytes(StandardCharsets.UTF_8);
+			socket.getOutputStream().write(bytes);
+			var echoed = socket.getInputStream().readNBytes(bytes.length);
+			TestChecks.checkEquals(message, new String(echoed, StandardCharsets.UTF_8), "echo");
+		}
+	}
+
+	// the tunnel binds on a background thread
+	private static Socket connect(InetSocketAddress address) throws Exception {
+		for (int attempt = 0;; attempt++) {
+			try {
+				return new Socket(address.getAddress(), address.getPort());
+			} catch (IOException e) {
+				if (attempt >= 50)
+					throw e;
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	private static void startEcho(ServerSocket backEnd) {
+		var acceptThread = new Thread(() -> {
+			while (!backEnd.isClosed()) {
+				Socket socket;
+				try {
+					socket = backEnd.accept();
+				} catch (IOException e) {
+					return;
+				}
+				var echoThread = new Thread(() -> {
+					try (socket) {
+						socket.getInputStream().transferTo(socket.getOutputStream());
+					} catch (IOException e) {
+						// client gone
+					}
+				});
+				echoThread.setDaemon(true);
+				echoThread.start();
+			}
+		});
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	private static int freePort() throws IOException {
+		try (var socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+}
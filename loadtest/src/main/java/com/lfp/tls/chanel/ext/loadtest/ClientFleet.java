@@ -0,0 +1,372 @@
+package com.lfp.tls.chanel.ext.loadtest;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.net.ssl.SSLContext;
+
+import com.lfp.tls.chanel.ext.core.LatencyHistogram;
+import com.lfp.tls.chanel.ext.core.TunnelUtils;
+
+import tlschannel.ClientTlsChannel;
+import tlschannel.NeedsReadException;
+import tlschannel.NeedsWriteException;
+
+/*
+ * non blocking clients that each echo a request, wait for the whole echo, think and repeat. connections are spread
+ * over a few selector threads and over loopback source addresses, so a single box can hold far more of them than
+ * one source address has ephemeral ports
+ */
+public class ClientFleet implements Closeable {
+	private static final Class<?> THIS_CLASS = new Object() {
+	}.getClass().getEnclosingClass();
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
+	private static final int READ_BUFFER_CAPACITY = 64 * 1024;
+	private static final long CONNECT_GRACE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private final LatencyHistogram connectLatency = new LatencyHistogram();
+	private final LatencyHistogram firstEchoLatency = new LatencyHistogram();
+	private final LatencyHistogram echoLatency = new LatencyHistogram();
+	private final LongAdder connectedCount = new LongAdder();
+	private final LongAdder failedCount = new LongAdder();
+	private final LongAdder droppedCount = new LongAdder();
+	private final LongAdder echoCount = new LongAdder();
+	private final LongAdder echoedByteCount = new LongAdder();
+	private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+	private final List<IoThread> ioThreads = new ArrayList<>();
+	private final LoadOptions options;
+	private final InetSocketAddress targetAddress;
+	private final SSLContext sslContext;
+	private final byte[] payload;
+	private final long thinkNanos;
+	private volatile boolean closed;
+
+	// a null context connects in plain text
+	public ClientFleet(LoadOptions options, InetSocketAddress targetAddress, SSLContext sslContext)
+			throws IOException {
+		this.options = options;
+		this.targetAddress = targetAddress;
+		this.sslContext = sslContext;
+		this.payload = new byte[options.getPayloadPattern().maxSize(options.getPayloadSize())];
+		ThreadLocalRandom.current().nextBytes(payload);
+		this.thinkNanos = options.getThinkTime().toNanos();
+		try {
+			for (int i = 0; i < options.getFleetThreads(); i++)
+				ioThreads.add(new IoThread(i));
+		} catch (IOException e) {
+			ioThreads.forEach(ioThread -> TunnelUtils.closeQuietly(ioThread.selector));
+			throw e;
+		}
+		ioThreads.forEach(Thread::start);
+	}
+
+	// opens the connections at the connect rate and returns once each one either echoed or failed
+	public void connect() {
+		long startNanos = System.nanoTime();
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / options.getConnectRate();
+		for (int i = 0; i < options.getConnections() && !closed; i++) {
+			long delayNanos = startNanos + i * intervalNanos - System.nanoTime();
+			if (delayNanos > 0)
+				LockSupport.parkNanos(delayNanos);
+			open(i);
+		}
+		long deadline = System.nanoTime() + CONNECT_GRACE_NANOS;
+		while (!closed && getSettledCount() < options.getConnections() && System.nanoTime() - deadline < 0)
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	// measurement starts over once the fleet is connected, the connect histograms are kept
+	public void resetStatistics() {
+		echoLatency.reset();
+		echoCount.reset();
+		echoedByteCount.reset();
+	}
+
+	public LatencyHistogram getConnectLatency() {
+		return connectLatency;
+	}
+
+	// from connect until the first echo, which covers the handshake and the backend connect of the tunnel
+	public LatencyHistogram getFirstEchoLatency() {
+		return firstEchoLatency;
+	}
+
+	public LatencyHistogram getEchoLatency() {
+		return echoLatency;
+	}
+
+	public long getConnectedCount() {
+		return connectedCount.sum();
+	}
+
+	public long getFailedCount() {
+		return failedCount.sum();
+	}
+
+	// established connections that were closed or reset before the fleet closed them
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+
+	public long getEchoCount() {
+		return echoCount.sum();
+	}
+
+	public long getEchoedByteCount() {
+		return echoedByteCount.sum();
+	}
+
+	public Throwable getFirstError() {
+		return firstError.get();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		for (var ioThread : ioThreads)
+			ioThread.selector.wakeup();
+	}
+
+	private long getSettledCount() {
+		return firstEchoLatency.getCount() + failedCount.sum() + droppedCount.sum();
+	}
+
+	private void open(int index) {
+		SocketChannel socketChannel = null;
+		try {
+			socketChannel = SocketChannel.open();
+			socketChannel.configureBlocking(false);
+			socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			var sourceAddress = getSourceAddress(index);
+			if (sourceAddress != null)
+				socketChannel.bind(new InetSocketAddress(sourceAddress, 0));
+			var connection = new Connection(socketChannel);
+			socketChannel.connect(targetAddress);
+			var ioThread = ioThreads.get(index % ioThreads.size());
+			ioThread.pending.add(connection);
+			ioThread.selector.wakeup();
+		} catch (IOException | RuntimeException e) {
+			TunnelUtils.closeQuietly(socketChannel);
+			failed(e);
+		}
+	}
+
+	// 127.0.0.2 and up when the target is on loopback, every address of 127/8 is local on linux
+	private InetAddress getSourceAddress(int index) throws IOException {
+		var targetInetAddress = targetAddress.getAddress();
+		if (targetInetAddress == null || !targetInetAddress.isLoopbackAddress()
+				|| targetInetAddress.getAddress().length != 4)
+			return null;
+		int offset = 2 + index / options.getConnectionsPerAddress();
+		return InetAddress.getByAddress(new byte[] { 127, 0, (byte) (offset / 250), (byte) (offset % 250) });
+	}
+
+	private void failed(Throwable error) {
+		failedCount.increment();
+		if (firstError.compareAndSet(null, error))
+			logger.warn("connection failed", error);
+	}
+
+	private class Connection {
+
+		private final SocketChannel socketChannel;
+		private final long connectStartNanos = System.nanoTime();
+		private final ByteBuffer writeBuffer = ByteBuffer.wrap(payload);
+		private ByteChannel channel;
+		private SelectionKey key;
+		private boolean established;
+		private boolean echoed;
+		private int requestSize;
+		private int received;
+		private long requestStartNanos;
+		private long wakeAtNanos;
+
+		public Connection(SocketChannel socketChannel) {
+			this.socketChannel = socketChannel;
+			this.writeBuffer.limit(0);
+		}
+	}
+
+	private class IoThread extends Thread {
+
+		private final Queue<Connection> pending = new ConcurrentLinkedQueue<>();
+		// think time is the same for every connection, so the queue is ordered by wake up time
+		private final ArrayDeque<Connection> thinking = new ArrayDeque<>();
+		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_CAPACITY);
+		private final Random random = new Random();
+		private final Selector selector;
+
+		public IoThread(int index) throws IOException {
+			super("client-fleet-" + index);
+			setDaemon(true);
+			this.selector = Selector.open();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!closed) {
+					var next = thinking.peek();
+					if (next == null)
+						selector.select();
+					else {
+						long waitMillis = TimeUnit.NANOSECONDS.toMillis(next.wakeAtNanos - System.nanoTime());
+						if (waitMillis > 0)
+							selector.select(waitMillis);
+						else
+							selector.selectNow();
+					}
+					Connection connection;
+					while ((connection = pending.poll()) != null)
+						register(connection);
+					for (var key : selector.selectedKeys())
+						handle((Connection) key.attachment());
+					selector.selectedKeys().clear();
+					long now = System.nanoTime();
+					while ((connection = thinking.peek()) != null && now - connection.wakeAtNanos >= 0) {
+						thinking.poll();
+						if (connection.key.isValid()) {
+							startRequest(connection);
+							drive(connection);
+						}
+					}
+				}
+			} catch (IOException e) {
+				logger.warn("client fleet error", e);
+			} finally {
+				for (var key : selector.keys())
+					TunnelUtils.closeQuietly(key.channel());
+				TunnelUtils.closeQuietly(selector);
+				pending.forEach(connection -> TunnelUtils.closeQuietly(connection.socketChannel));
+			}
+		}
+
+		private void register(Connection connection) {
+			try {
+				connection.key = connection.socketChannel.register(selector, SelectionKey.OP_CONNECT, connection);
+			} catch (IOException e) {
+				TunnelUtils.closeQuietly(connection.socketChannel);
+				failed(e);
+			}
+		}
+
+		private void handle(Connection connection) {
+			try {
+				if (!connection.established) {
+					if (!connection.socketChannel.finishConnect())
+						return;
+					connection.established = true;
+					connectedCount.increment();
+					connectLatency.record(System.nanoTime() - connection.connectStartNanos);
+					connection.channel = sslContext == null ? connection.socketChannel
+							: ClientTlsChannel.newBuilder(connection.socketChannel, sslContext).build();
+					startRequest(connection);
+				}
+				drive(connection);
+			} catch (IOException | RuntimeException e) {
+				TunnelUtils.closeQuietly(connection.channel, connection.socketChannel);
+				if (!connection.established)
+					failed(e);
+				else if (!closed) {
+					droppedCount.increment();
+					if (firstError.compareAndSet(null, e))
+						logger.warn("connection dropped", e);
+				}
+			}
+		}
+
+		private void startRequest(Connection connection) {
+			connection.requestSize = options.getPayloadPattern().nextSize(options.getPayloadSize(), random);
+			connection.writeBuffer.clear().limit(connection.requestSize);
+			connection.received = 0;
+			connection.requestStartNanos = System.nanoTime();
+		}
+
+		private void drive(Connection connection) throws IOException {
+			while (true) {
+				if (!write(connection) || !read(connection))
+					return;
+				long now = System.nanoTime();
+				if (connection.echoed)
+					echoLatency.record(now - connection.requestStartNanos);
+				else {
+					connection.echoed = true;
+					firstEchoLatency.record(now - connection.connectStartNanos);
+				}
+				echoCount.increment();
+				echoedByteCount.add(connection.requestSize);
+				if (thinkNanos > 0) {
+					connection.wakeAtNanos = now + thinkNanos;
+					connection.key.interestOps(0);
+					thinking.add(connection);
+					return;
+				}
+				startRequest(connection);
+			}
+		}
+
+		// false once the channel would block, with the key waiting for what it needs
+		private boolean write(Connection connection) throws IOException {
+			try {
+				while (connection.writeBuffer.hasRemaining()) {
+					if (connection.channel.write(connection.writeBuffer) == 0) {
+						connection.key.interestOps(SelectionKey.OP_WRITE);
+						return false;
+					}
+				}
+				return true;
+			} catch (NeedsReadException e) {
+				connection.key.interestOps(SelectionKey.OP_READ);
+				return false;
+			} catch (NeedsWriteException e) {
+				connection.key.interestOps(SelectionKey.OP_WRITE);
+				return false;
+			}
+		}
+
+		private boolean read(Connection connection) throws IOException {
+			try {
+				while (connection.received < connection.requestSize) {
+					readBuffer.clear().limit(Math.min(readBuffer.capacity(),
+							connection.requestSize - connection.received));
+					int read = connection.channel.read(readBuffer);
+					if (read < 0)
+						throw new EOFException("closed by peer");
+					if (read == 0) {
+						connection.key.interestOps(SelectionKey.OP_READ);
+						return false;
+					}
+					connection.received += read;
+				}
+				return true;
+			} catch (NeedsReadException e) {
+				connection.key.interestOps(SelectionKey.OP_READ);
+				return false;
+			} catch (NeedsWriteException e) {
+				connection.key.interestOps(SelectionKey.OP_WRITE);
+				return false;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.lfp.tls.chanel.ext.loadtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.lfp.tls.chanel.ext.core.TunnelUtils;
+
+/*
+ * selector based echo server listening on several ports. reads go through one buffer per thread and a connection
+ * only holds a buffer of its own while the peer is not reading its echo, so idle connections cost a socket and a key
+ */
+public class EchoBackend implements Closeable {
+	private static final Class<?> THIS_CLASS = new Object() {
+	}.getClass().getEnclosingClass();
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(THIS_CLASS);
+	private static final int READ_BUFFER_CAPACITY = 64 * 1024;
+
+	private final List<ServerSocketChannel> serverSocketChannels = new ArrayList<>();
+	private final List<Worker> workers = new ArrayList<>();
+	private final Selector acceptSelector;
+	private volatile boolean closed;
+	private int nextWorker;
+
+	public EchoBackend(List<InetSocketAddress> addresses, int threads) throws IOException {
+		this.acceptSelector = Selector.open();
+		try {
+			for (var address : addresses) {
+				var serverSocketChannel = ServerSocketChannel.open();
+				serverSocketChannels.add(serverSocketChannel);
+				serverSocketChannel.bind(address, 4096);
+				serverSocketChannel.configureBlocking(false);
+				serverSocketChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+			}
+			for (int i = 0; i < threads; i++)
+				workers.add(new Worker(i));
+		} catch (IOException | RuntimeException e) {
+			for (var worker : workers)
+				TunnelUtils.closeQuietly(worker.selector);
+			close();
+			throw e;
+		}
+		workers.forEach(Worker::start);
+		var acceptThread = new Thread(this::acceptLoop, "echo-backend-accept");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		TunnelUtils.closeQuietly(acceptSelector);
+		serverSocketChannels.forEach(TunnelUtils::closeQuietly);
+		// workers close their own connections, their selectors are not safe to walk from here
+		for (var worker : workers)
+			worker.selector.wakeup();
+	}
+
+	private void acceptLoop() {
+		try {
+			while (acceptSelector.isOpen()) {
+				acceptSelector.select();
+				for (var key : acceptSelector.selectedKeys()) {
+					SocketChannel socketChannel;
+					while ((socketChannel = ((ServerSocketChannel) key.channel()).accept()) != null) {
+						var worker = workers.get(nextWorker++ % workers.size());
+						worker.pending.add(socketChannel);
+						worker.selector.wakeup();
+					}
+				}
+				acceptSelector.selectedKeys().clear();
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			if (acceptSelector.isOpen())
+				logger.warn("echo backend accept error", e);
+		}
+	}
+
+	private class Worker extends Thread {
+
+		private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_CAPACITY);
+		private final Selector selector;
+
+		public Worker(int index) throws IOException {
+			super("echo-backend-" + index);
+			setDaemon(true);
+			this.selector = Selector.open();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!closed) {
+					selector.select();
+					SocketChannel socketChannel;
+					while ((socketChannel = pending.poll()) != null)
+						register(socketChannel);
+					for (var key : selector.selectedKeys()) {
+						try {
+							if (key.isWritable())
+								flush(key);
+							else if (key.isReadable())
+								echo(key);
+						} catch (IOException e) {
+							TunnelUtils.closeQuietly(key.channel());
+						}
+					}
+					selector.selectedKeys().clear();
+				}
+			} catch (IOException e) {
+				logger.warn("echo backend error", e);
+			} finally {
+				for (var key : selector.keys())
+					TunnelUtils.closeQuietly(key.channel());
+				TunnelUtils.closeQuietly(selector);
+				pending.forEach(TunnelUtils::closeQuietly);
+			}
+		}
+
+		private void register(SocketChannel socketChannel) {
+			try {
+				socketChannel.configureBlocking(false);
+				socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				socketChannel.register(selector, SelectionKey.OP_READ);
+			} catch (IOException e) {
+				TunnelUtils.closeQuietly(socketChannel);
+			}
+		}
+
+		private void echo(SelectionKey key) throws IOException {
+			var socketChannel = (SocketChannel) key.channel();
+			readBuffer.clear();
+			int read = socketChannel.read(readBuffer);
+			if (read < 0) {
+				socketChannel.close();
+				return;
+			}
+			readBuffer.flip();
+			socketChannel.write(readBuffer);
+			if (!readBuffer.hasRemaining())
+				return;
+			// the peer is not reading, hold the rest and stop reading until it is written
+			var unwritten = ByteBuffer.allocate(readBuffer.remaining());
+			unwritten.put(readBuffer).flip();
+			key.attach(unwritten);
+			key.interestOps(SelectionKey.OP_WRITE);
+		}
+
+		private void flush(SelectionKey key) throws IOException {
+			var unwritten = (ByteBuffer) key.attachment();
+			((SocketChannel) key.channel()).write(unwritten);
+			if (unwritten.hasRemaining())
+				return;
+			key.attach(null);
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+}
@@ -0,0 +1,327 @@
+package com.lfp.tls.chanel.ext.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import com.lfp.tls.chanel.ext.core.AdmissionController;
+import com.lfp.tls.chanel.ext.core.AsynchronousTlsChannelExt;
+import com.lfp.tls.chanel.ext.core.BackEndGroup;
+import com.lfp.tls.chanel.ext.core.LatencyHistogram;
+import com.lfp.tls.chanel.ext.core.TlsTunneler;
+import com.lfp.tls.chanel.ext.core.Tunnel;
+import com.lfp.tls.chanel.ext.core.Tunneler;
+
+import test.TestServices;
+
+/*
+ * capacity harness for a fixed number of concurrent tunnels on one box. the default role runs the tunnel in this
+ * process and forks the echo backends and the client fleet into another one, so that heap, direct memory, rss,
+ * threads, gc and cpu reported here belong to the tunnel alone. the fleet reports latency and throughput.
+ *
+ * java -Xmx4g -jar loadtest.jar --connections=50000 --mode=tls --payloadSize=512 --thinkTime=250ms --duration=2m
+ *
+ * 100k connections need an open file limit above 200k for this process and for the fleet (ulimit -n)
+ */
+public class LoadHarness {
+
+	private static final String MEASURE_PHASE = "phase=measure";
+	private static final String DONE_PHASE = "phase=done";
+	private static final Duration SAMPLE_INTERVAL = Duration.ofSeconds(1);
+	// a standalone tunnel starts measuring once the tunnel count held still for this long
+	private static final Duration SETTLE_TIME = Duration.ofSeconds(5);
+
+	public static void main(String[] args) throws Exception {
+		var options = LoadOptions.parse(args);
+		switch (options.getRole()) {
+		case FLEET:
+			runFleet(options);
+			break;
+		case TUNNEL:
+			runTunnel(options);
+			break;
+		default:
+			runAll(options);
+			break;
+		}
+		System.exit(0);
+	}
+
+	private static void runAll(LoadOptions options) throws Exception {
+		var listenAddress = options.getListenAddress() != null ? options.getListenAddress() : freeAddress();
+		var backEndAddresses = new ArrayList<>(options.getBackEndAddresses());
+		while (backEndAddresses.size() < options.getBackEndCount())
+			backEndAddresses.add(freeAddress());
+		System.out.println(options);
+		try (var monitor = new TunnelMonitor(options, listenAddress, backEndAddresses)) {
+			var command = new ArrayList<String>();
+			command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(LoadHarness.class.getName());
+			command.addAll(options.toFleetArgs(listenAddress, backEndAddresses));
+			var process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			try (var reader = new BufferedReader(
+					new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					System.out.println(line);
+					if (line.startsWith(MEASURE_PHASE))
+						monitor.measureStarted();
+					else if (line.startsWith(DONE_PHASE))
+						monitor.measureEnded();
+				}
+			} finally {
+				process.destroy();
+			}
+			int exitCode = process.waitFor();
+			if (exitCode != 0)
+				System.out.println("fleet exited with code " + exitCode);
+			monitor.report();
+		}
+	}
+
+	private static void runTunnel(LoadOptions options) throws Exception {
+		if (options.getListenAddress() == null || options.getBackEndAddresses().isEmpty())
+			throw new IllegalArgumentException("tunnel role requires --listen and --backends");
+		System.out.println(options);
+		try (var monitor = new TunnelMonitor(options, options.getListenAddress(), options.getBackEndAddresses())) {
+			int tunnelCount = -1;
+			long settledAt = System.nanoTime();
+			while (tunnelCount <= 0 || System.nanoTime() - settledAt < SETTLE_TIME.toNanos()) {
+				Thread.sleep(SAMPLE_INTERVAL.toMillis());
+				var current = monitor.admissionController.getTunnelCount();
+				if (current != tunnelCount) {
+					tunnelCount = current;
+					settledAt = System.nanoTime();
+				}
+			}
+			monitor.measureStarted();
+			Thread.sleep(options.getDuration().toMillis());
+			monitor.measureEnded();
+			monitor.report();
+		}
+	}
+
+	private static void runFleet(LoadOptions options) throws Exception {
+		if (options.getTargetAddress() == null || options.getBackEndAddresses().isEmpty())
+			throw new IllegalArgumentException("fleet role requires --target and --backends");
+		var sslContext = options.getMode() == LoadOptions.Mode.TLS ? createClientSSLContext() : null;
+		try (var echoBackEnd = new EchoBackend(options.getBackEndAddresses(), options.getFleetThreads());
+				var fleet = new ClientFleet(options, options.getTargetAddress(), sslContext)) {
+			fleet.connect();
+			System.out.println(String.format("%s connected=%s failed=%s dropped=%s", MEASURE_PHASE,
+					fleet.getConnectedCount(), fleet.getFailedCount(), fleet.getDroppedCount()));
+			fleet.resetStatistics();
+			long startNanos = System.nanoTime();
+			Thread.sleep(options.getDuration().toMillis());
+			long elapsedNanos = System.nanoTime() - startNanos;
+			long echoCount = fleet.getEchoCount();
+			long echoedByteCount = fleet.getEchoedByteCount();
+			System.out.println(DONE_PHASE);
+			double seconds = elapsedNanos / 1e9;
+			System.out.println(String.format("fleet connections: connected=%s failed=%s dropped=%s",
+					fleet.getConnectedCount(), fleet.getFailedCount(), fleet.getDroppedCount()));
+			System.out.println("fleet connect: " + formatLatency(fleet.getConnectLatency()));
+			System.out.println("fleet firstEcho: " + formatLatency(fleet.getFirstEchoLatency()));
+			System.out.println("fleet echo: " + formatLatency(fleet.getEchoLatency()));
+			System.out.println(String.format("fleet throughput: echoesPerSecond=%.1f echoMBps=%.2f",
+					echoCount / seconds, echoedByteCount / seconds / (1024 * 1024)));
+			if (fleet.getFirstError() != null)
+				System.out.println("fleet firstError: " + fleet.getFirstError());
+		}
+	}
+
+	private static InetSocketAddress freeAddress() throws IOException {
+		try (var serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+		}
+	}
+
+	private static SSLContext createClientSSLContext() throws GeneralSecurityException {
+		var sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(null, new TrustManager[] { new TrustAllManager() }, null);
+		return sslContext;
+	}
+
+	private static String formatLatency(LatencyHistogram latencyHistogram) {
+		return String.format("count=%s p50=%s p90=%s p99=%s p999=%s max=%s", latencyHistogram.getCount(),
+				formatMillis(latencyHistogram.getValueAtPercentile(50)),
+				formatMillis(latencyHistogram.getValueAtPercentile(90)),
+				formatMillis(latencyHistogram.getValueAtPercentile(99)),
+				formatMillis(latencyHistogram.getValueAtPercentile(99.9)), formatMillis(latencyHistogram.getMax()));
+	}
+
+	private static String formatMillis(Duration duration) {
+		return String.format("%.3fms", duration.toNanos() / 1e6);
+	}
+
+	private static String formatBytes(double bytes) {
+		if (Math.abs(bytes) >= 1024 * 1024)
+			return String.format("%.1fMB", bytes / (1024 * 1024));
+		if (Math.abs(bytes) >= 1024)
+			return String.format("%.1fKB", bytes / 1024);
+		return String.format("%.0fB", bytes);
+	}
+
+	// runs the tunnel and samples this process, peaks come from a sample every second
+	private static class TunnelMonitor implements AutoCloseable {
+
+		private final AdmissionController admissionController = new AdmissionController(0, 0, 0);
+		private final AtomicReference<ResourceUsage> peak = new AtomicReference<>();
+		private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+			var thread = new Thread(r, "resource-sampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		private final LoadOptions options;
+		private final Tunnel tunnel;
+		private final ResourceUsage baseline;
+		private ResourceUsage steady;
+		private ResourceUsage measureEnd;
+		private int tunnelCount;
+		private long relayedByteCountStart;
+		private long relayedByteCountEnd;
+
+		public TunnelMonitor(LoadOptions options, InetSocketAddress listenAddress,
+				List<InetSocketAddress> backEndAddresses) throws IOException, GeneralSecurityException {
+			this.options = options;
+			var backEndGroup = new BackEndGroup(BackEndGroup.Strategy.LEAST_CONNECTIONS, backEndAddresses);
+			if (options.getMode() == LoadOptions.Mode.TLS) {
+				var sslContext = TestServices.createSSLContext();
+				var tunneler = new TlsTunneler(Duration.ofSeconds(10)) {
+
+					@Override
+					protected Optional<SSLContext> getSSLContext(Optional<SNIServerName> sniServerNameOp) {
+						return Optional.of(sslContext);
+					}
+
+					@Override
+					protected BackEndGroup getBackEndGroup(AsynchronousTlsChannelExt byteChannel) {
+						return backEndGroup;
+					}
+				};
+				tunneler.setAcceptBacklog(4096);
+				tunneler.setAdmissionController(admissionController);
+				this.tunnel = tunneler.start(listenAddress);
+			} else {
+				var tunneler = new Tunneler() {
+
+					@Override
+					protected SocketAddress getBackEndSocketAddress(AsynchronousByteChannel byteChannel) {
+						return backEndAddresses.get(0);
+					}
+
+					@Override
+					protected BackEndGroup getBackEndGroup(AsynchronousByteChannel byteChannel) {
+						return backEndGroup;
+					}
+				};
+				tunneler.setAcceptBacklog(4096);
+				tunneler.setAdmissionController(admissionController);
+				this.tunnel = tunneler.start(listenAddress);
+			}
+			System.gc();
+			this.baseline = ResourceUsage.sample();
+			peak.set(baseline);
+			sampler.scheduleAtFixedRate(() -> peak.accumulateAndGet(ResourceUsage.sample(), ResourceUsage::max),
+					SAMPLE_INTERVAL.toMillis(), SAMPLE_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		// every tunnel is up, what is retained now is what the tunnels hold
+		public synchronized void measureStarted() {
+			this.tunnelCount = admissionController.getTunnelCount();
+			System.gc();
+			this.steady = ResourceUsage.sample();
+			this.relayedByteCountStart = getRelayedByteCount();
+		}
+
+		public synchronized void measureEnded() {
+			this.measureEnd = ResourceUsage.sample();
+			this.relayedByteCountEnd = getRelayedByteCount();
+		}
+
+		public synchronized void report() {
+			if (steady == null || measureEnd == null) {
+				System.out.println("tunnel: no measurement, the fleet did not finish");
+				return;
+			}
+			var peak = this.peak.get().max(measureEnd);
+			double seconds = (measureEnd.getTimestampNanos() - steady.getTimestampNanos()) / 1e9;
+			double relayedMBps = (relayedByteCountEnd - relayedByteCountStart) / seconds / (1024 * 1024);
+			double cpuCores = (measureEnd.getCpuTimeNanos() - steady.getCpuTimeNanos()) / 1e9 / seconds;
+			long gcTimeMillis = measureEnd.getGcTimeMillis() - steady.getGcTimeMillis();
+			int perTunnelDivisor = Math.max(1, tunnelCount);
+			System.out.println(String.format("tunnel %s: tunnels=%s relayedMBps=%.2f", options.getMode(),
+					tunnelCount, relayedMBps));
+			System.out.println(String.format("tunnel cpu: cores=%.3f coresPerRelayedMBps=%.4f", cpuCores,
+					relayedMBps == 0 ? 0 : cpuCores / relayedMBps));
+			System.out.println(String.format("tunnel gc: count=%s timeMs=%s timePct=%.2f",
+					measureEnd.getGcCount() - steady.getGcCount(), gcTimeMillis, gcTimeMillis / 10.0 / seconds));
+			System.out.println(String.format("tunnel heap: baseline=%s retained=%s perTunnel=%s peak=%s",
+					formatBytes(baseline.getHeapUsedBytes()), formatBytes(steady.getHeapUsedBytes()),
+					formatBytes((double) (steady.getHeapUsedBytes() - baseline.getHeapUsedBytes()) / perTunnelDivisor),
+					formatBytes(peak.getHeapUsedBytes())));
+			System.out.println(String.format("tunnel direct: baseline=%s steady=%s perTunnel=%s peak=%s buffers=%s",
+					formatBytes(baseline.getDirectUsedBytes()), formatBytes(steady.getDirectUsedBytes()),
+					formatBytes(
+							(double) (steady.getDirectUsedBytes() - baseline.getDirectUsedBytes()) / perTunnelDivisor),
+					formatBytes(peak.getDirectUsedBytes()), peak.getDirectCount()));
+			if (baseline.getRssBytes() >= 0)
+				System.out.println(String.format("tunnel rss: baseline=%s steady=%s perTunnel=%s peak=%s",
+						formatBytes(baseline.getRssBytes()), formatBytes(steady.getRssBytes()),
+						formatBytes((double) (steady.getRssBytes() - baseline.getRssBytes()) / perTunnelDivisor),
+						formatBytes(peak.getRssBytes())));
+			System.out.println(String.format("tunnel threads: baseline=%s steady=%s peak=%s",
+					baseline.getThreadCount(), steady.getThreadCount(), peak.getThreadCount()));
+		}
+
+		@Override
+		public void close() {
+			sampler.shutdownNow();
+			tunnel.cancel(true);
+		}
+
+		private long getRelayedByteCount() {
+			return tunnel.getReadCounter().getTotalByteCount() + tunnel.getWriteCounter().getTotalByteCount();
+		}
+	}
+
+	// the harness measures the tunnel, the test certificate is not verified
+	private static class TrustAllManager implements X509TrustManager {
+
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return new X509Certificate[0];
+		}
+	}
+
+}
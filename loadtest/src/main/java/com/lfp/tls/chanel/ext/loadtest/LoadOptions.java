@@ -0,0 +1,219 @@
+package com.lfp.tls.chanel.ext.loadtest;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+// --name=value command line options, unknown names fail fast so that a typo does not run the default load.
+// java -Xmx4g -jar loadtest/target/loadtest.jar --connections=10000 [options]
+public class LoadOptions {
+
+	public static enum Role {
+		// runs the tunnel here and forks the fleet, so that this process measures the tunnel alone
+		ALL,
+		// only the tunnel, listening on --listen and relaying to --backends
+		TUNNEL,
+		// the echo backends on --backends and the client fleet connecting to --target
+		FLEET;
+	}
+
+	public static enum Mode {
+		PLAIN, TLS;
+	}
+
+	private Role role = Role.ALL;
+	private Mode mode = Mode.PLAIN;
+	private int connections = 10_000;
+	private int payloadSize = 1024;
+	private PayloadPattern payloadPattern = PayloadPattern.FIXED;
+	private Duration thinkTime = Duration.ofMillis(100);
+	private Duration duration = Duration.ofSeconds(60);
+	private int connectRate = 5_000;
+	private int fleetThreads = Runtime.getRuntime().availableProcessors();
+	// stays below the default ephemeral port range of a single source and destination address pair
+	private int connectionsPerAddress = 20_000;
+	private InetSocketAddress listenAddress;
+	private InetSocketAddress targetAddress;
+	private List<InetSocketAddress> backEndAddresses = List.of();
+
+	public static LoadOptions parse(String... args) {
+		var options = new LoadOptions();
+		for (var arg : args) {
+			int split = arg.indexOf('=');
+			if (!arg.startsWith("--") || split < 0)
+				throw new IllegalArgumentException("expected --name=value:" + arg);
+			var name = arg.substring(2, split);
+			var value = arg.substring(split + 1);
+			switch (name) {
+			case "role":
+				options.role = Role.valueOf(value.toUpperCase(Locale.ROOT));
+				break;
+			case "mode":
+				options.mode = Mode.valueOf(value.toUpperCase(Locale.ROOT));
+				break;
+			case "connections":
+				options.connections = parsePositive(name, value);
+				break;
+			case "payloadSize":
+				options.payloadSize = parsePositive(name, value);
+				break;
+			case "payloadPattern":
+				options.payloadPattern = PayloadPattern.valueOf(value.toUpperCase(Locale.ROOT));
+				break;
+			case "thinkTime":
+				options.thinkTime = parseDuration(value);
+				break;
+			case "duration":
+				options.duration = parseDuration(value);
+				break;
+			case "connectRate":
+				options.connectRate = parsePositive(name, value);
+				break;
+			case "fleetThreads":
+				options.fleetThreads = parsePositive(name, value);
+				break;
+			case "connectionsPerAddress":
+				options.connectionsPerAddress = parsePositive(name, value);
+				break;
+			case "listen":
+				options.listenAddress = parseAddress(value);
+				break;
+			case "target":
+				options.targetAddress = parseAddress(value);
+				break;
+			case "backends":
+				var backEndAddresses = new ArrayList<InetSocketAddress>();
+				for (var address : value.split(","))
+					backEndAddresses.add(parseAddress(address));
+				options.backEndAddresses = List.copyOf(backEndAddresses);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option:" + arg);
+			}
+		}
+		return options;
+	}
+
+	// the options a forked fleet needs to generate the same load
+	public List<String> toFleetArgs(InetSocketAddress targetAddress, List<InetSocketAddress> backEndAddresses) {
+		var args = new ArrayList<String>();
+		args.add("--role=" + Role.FLEET.name().toLowerCase(Locale.ROOT));
+		args.add("--mode=" + mode.name().toLowerCase(Locale.ROOT));
+		args.add("--connections=" + connections);
+		args.add("--payloadSize=" + payloadSize);
+		args.add("--payloadPattern=" + payloadPattern.name().toLowerCase(Locale.ROOT));
+		args.add("--thinkTime=" + thinkTime.toMillis() + "ms");
+		args.add("--duration=" + duration.toMillis() + "ms");
+		args.add("--connectRate=" + connectRate);
+		args.add("--fleetThreads=" + fleetThreads);
+		args.add("--connectionsPerAddress=" + connectionsPerAddress);
+		args.add("--target=" + format(targetAddress));
+		args.add("--backends=" + backEndAddresses.stream().map(LoadOptions::format).collect(Collectors.joining(",")));
+		return args;
+	}
+
+	public Role getRole() {
+		return role;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public int getConnections() {
+		return connections;
+	}
+
+	public int getPayloadSize() {
+		return payloadSize;
+	}
+
+	public PayloadPattern getPayloadPattern() {
+		return payloadPattern;
+	}
+
+	public Duration getThinkTime() {
+		return thinkTime;
+	}
+
+	public Duration getDuration() {
+		return duration;
+	}
+
+	public int getConnectRate() {
+		return connectRate;
+	}
+
+	public int getFleetThreads() {
+		return fleetThreads;
+	}
+
+	public int getConnectionsPerAddress() {
+		return connectionsPerAddress;
+	}
+
+	public InetSocketAddress getListenAddress() {
+		return listenAddress;
+	}
+
+	public InetSocketAddress getTargetAddress() {
+		return targetAddress;
+	}
+
+	public List<InetSocketAddress> getBackEndAddresses() {
+		return backEndAddresses;
+	}
+
+	// one backend port per connectionsPerAddress tunnels, the tunnel connects to all of them from one address
+	public int getBackEndCount() {
+		return (connections + connectionsPerAddress - 1) / connectionsPerAddress;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"LoadOptions [role=%s, mode=%s, connections=%s, payloadSize=%s, payloadPattern=%s, thinkTime=%s, duration=%s, connectRate=%s, fleetThreads=%s]",
+				role, mode, connections, payloadSize, payloadPattern, thinkTime, duration, connectRate, fleetThreads);
+	}
+
+	private static int parsePositive(String name, String value) {
+		var result = Integer.parseInt(value.replace("_", ""));
+		if (result <= 0)
+			throw new IllegalArgumentException(String.format("positive value required. name:%s value:%s", name, value));
+		return result;
+	}
+
+	// 250ms, 30s, 5m or an iso duration such as PT1M
+	private static Duration parseDuration(String value) {
+		var lower = value.toLowerCase(Locale.ROOT);
+		if (lower.startsWith("pt"))
+			return Duration.parse(value);
+		if (lower.endsWith("ms"))
+			return Duration.ofMillis(Long.parseLong(lower.substring(0, lower.length() - 2)));
+		if (lower.endsWith("s"))
+			return Duration.ofSeconds(Long.parseLong(lower.substring(0, lower.length() - 1)));
+		if (lower.endsWith("m"))
+			return Duration.ofMinutes(Long.parseLong(lower.substring(0, lower.length() - 1)));
+		throw new IllegalArgumentException("invalid duration:" + value);
+	}
+
+	private static InetSocketAddress parseAddress(String value) {
+		int split = value.lastIndexOf(':');
+		if (split < 0)
+			throw new IllegalArgumentException("expected host:port:" + value);
+		var host = value.substring(0, split);
+		var port = Integer.parseInt(value.substring(split + 1));
+		if (host.isEmpty())
+			return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+		return new InetSocketAddress(host, port);
+	}
+
+	private static String format(InetSocketAddress address) {
+		return address.getHostString() + ":" + address.getPort();
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.lfp.tls.chanel.ext.loadtest;
+
+import java.util.Random;
+
+// sizes of the requests a client echoes, derived from the configured payload size
+public enum PayloadPattern {
+	// every request is the payload size
+	FIXED,
+	// uniform between one byte and the payload size
+	UNIFORM,
+	// one request in ten is sixteen times the payload size, the rest are the payload size
+	BIMODAL;
+
+	private static final int BIMODAL_FACTOR = 16;
+
+	public int nextSize(int payloadSize, Random random) {
+		switch (this) {
+		case UNIFORM:
+			return 1 + random.nextInt(payloadSize);
+		case BIMODAL:
+			return random.nextInt(10) == 0 ? payloadSize * BIMODAL_FACTOR : payloadSize;
+		default:
+			return payloadSize;
+		}
+	}
+
+	public int maxSize(int payloadSize) {
+		return this == BIMODAL ? payloadSize * BIMODAL_FACTOR : payloadSize;
+	}
+
+}
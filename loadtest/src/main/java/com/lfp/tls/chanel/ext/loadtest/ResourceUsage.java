@@ -0,0 +1,127 @@
+package com.lfp.tls.chanel.ext.loadtest;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// a point in time sample of what this process holds, rss is -1 where /proc is not available
+public class ResourceUsage {
+
+	private static final Path PROC_STATUS = Path.of("/proc/self/status");
+
+	private final long timestampNanos;
+	private final long rssBytes;
+	private final long heapUsedBytes;
+	private final long directUsedBytes;
+	private final long directCount;
+	private final int threadCount;
+	private final long gcCount;
+	private final long gcTimeMillis;
+	private final long cpuTimeNanos;
+
+	private ResourceUsage(long timestampNanos, long rssBytes, long heapUsedBytes, long directUsedBytes,
+			long directCount, int threadCount, long gcCount, long gcTimeMillis, long cpuTimeNanos) {
+		this.timestampNanos = timestampNanos;
+		this.rssBytes = rssBytes;
+		this.heapUsedBytes = heapUsedBytes;
+		this.directUsedBytes = directUsedBytes;
+		this.directCount = directCount;
+		this.threadCount = threadCount;
+		this.gcCount = gcCount;
+		this.gcTimeMillis = gcTimeMillis;
+		this.cpuTimeNanos = cpuTimeNanos;
+	}
+
+	public static ResourceUsage sample() {
+		long directUsedBytes = 0;
+		long directCount = 0;
+		for (var bufferPool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if (!"direct".equals(bufferPool.getName()))
+				continue;
+			directUsedBytes = bufferPool.getMemoryUsed();
+			directCount = bufferPool.getCount();
+		}
+		long gcCount = 0;
+		long gcTimeMillis = 0;
+		for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += Math.max(0, gc.getCollectionCount());
+			gcTimeMillis += Math.max(0, gc.getCollectionTime());
+		}
+		long cpuTimeNanos = -1;
+		var operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+		if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean)
+			cpuTimeNanos = ((com.sun.management.OperatingSystemMXBean) operatingSystem).getProcessCpuTime();
+		return new ResourceUsage(System.nanoTime(), readRssBytes(),
+				ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), directUsedBytes, directCount,
+				ManagementFactory.getThreadMXBean().getThreadCount(), gcCount, gcTimeMillis, cpuTimeNanos);
+	}
+
+	// the larger of each gauge, counters are taken from the later sample
+	public ResourceUsage max(ResourceUsage other) {
+		var later = other.timestampNanos - timestampNanos >= 0 ? other : this;
+		return new ResourceUsage(later.timestampNanos, Math.max(rssBytes, other.rssBytes),
+				Math.max(heapUsedBytes, other.heapUsedBytes), Math.max(directUsedBytes, other.directUsedBytes),
+				Math.max(directCount, other.directCount), Math.max(threadCount, other.threadCount), later.gcCount,
+				later.gcTimeMillis, later.cpuTimeNanos);
+	}
+
+	public long getTimestampNanos() {
+		return timestampNanos;
+	}
+
+	public long getRssBytes() {
+		return rssBytes;
+	}
+
+	public long getHeapUsedBytes() {
+		return heapUsedBytes;
+	}
+
+	public long getDirectUsedBytes() {
+		return directUsedBytes;
+	}
+
+	public long getDirectCount() {
+		return directCount;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public long getGcCount() {
+		return gcCount;
+	}
+
+	public long getGcTimeMillis() {
+		return gcTimeMillis;
+	}
+
+	public long getCpuTimeNanos() {
+		return cpuTimeNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"ResourceUsage [rssBytes=%s, heapUsedBytes=%s, directUsedBytes=%s, directCount=%s, threadCount=%s, gcCount=%s, gcTimeMillis=%s, cpuTimeNanos=%s]",
+				rssBytes, heapUsedBytes, directUsedBytes, directCount, threadCount, gcCount, gcTimeMillis,
+				cpuTimeNanos);
+	}
+
+	private static long readRssBytes() {
+		try {
+			for (var line : Files.readAllLines(PROC_STATUS)) {
+				// VmRSS:	  123456 kB
+				if (line.startsWith("VmRSS:"))
+					return Long.parseLong(line.substring("VmRSS:".length()).replace("kB", "").trim()) * 1024;
+			}
+		} catch (IOException | RuntimeException e) {
+			// not linux
+		}
+		return -1;
+	}
+
+}